@@ -0,0 +1,175 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Golden image test for the single pass compositing. Each renderer has to match frames drawn the
+ * way the renderers used to draw them: the background, then the colour glyph layer stretched up,
+ * then the outline layer on top.
+ *
+ * Mismatched frames are saved under the app's files/golden directory for a look.
+ */
+public class CompositorTest extends AndroidTestCase {
+    private static final String TAG = "CompositorTest";
+
+    private static final String MESSAGE = "Wave 👋 hello, world! Été 🎉";
+    /**
+     * Has no colour glyphs, so the tiled renderer draws it through alpha masks
+     */
+    private static final String PLAIN_MESSAGE = "Wave hello, world! Été";
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 360;
+    private static final RectF BOUNDS = new RectF(0, 30, WIDTH, HEIGHT - 30);
+    private static final float MAX_WIDTH = 5000;
+    private static final float[] OFFSETS = {-300, 0, 517, 1200, 2400};
+
+    /**
+     * Antialiasing over an opaque background can round differently to antialiasing onto a clear
+     * layer that is blended afterwards
+     */
+    private static final int MAX_CHANNEL_DIFFERENCE = 24;
+    private static final double MAX_DIFFERENT_FRACTION = 0.005;
+    private static final long PREPARE_TIMEOUT = 5000;
+
+    public void testPathRenderer() throws Exception {
+        checkRenderer("path", new PathTextRenderer(), MESSAGE, Color.BLACK, Color.WHITE);
+        checkRenderer("path-dark", new PathTextRenderer(), MESSAGE, Color.WHITE, Color.BLACK);
+        checkRenderer("path-mask", new PathTextRenderer(), PLAIN_MESSAGE, Color.BLUE, Color.YELLOW);
+    }
+
+    public void testTiledRenderer() throws Exception {
+        checkRenderer("tiled", new TiledTextRenderer(), MESSAGE, Color.BLACK, Color.WHITE);
+        checkRenderer("tiled-dark", new TiledTextRenderer(), MESSAGE, Color.WHITE, Color.BLACK);
+        checkRenderer("tiled-mask", new TiledTextRenderer(), PLAIN_MESSAGE, Color.BLUE, Color.YELLOW);
+    }
+
+    private void checkRenderer(String name, TextScrollRenderer renderer, String text, int foreground,
+                               int background) throws Exception {
+        renderer.setText(text);
+        renderer.setBounds(BOUNDS);
+        renderer.setMaxWidth(MAX_WIDTH);
+        renderer.setForeground(foreground);
+        renderer.setBackground(background);
+
+        for (float offset : OFFSETS) {
+            Bitmap actual = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(actual);
+            long deadline = System.currentTimeMillis() + PREPARE_TIMEOUT;
+            while (!renderer.render(canvas, offset)) {
+                assertTrue("preparing took too long", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+
+            Bitmap expected = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+            drawLayered(new Canvas(expected), text, offset, foreground, background);
+
+            String frame = name + "-" + (int) offset;
+            double different = compare(expected, actual);
+            if (different > MAX_DIFFERENT_FRACTION) {
+                save(frame + "-expected", expected);
+                save(frame + "-actual", actual);
+            }
+            assertTrue(frame + " differs in " + different * 100 + "% of pixels",
+                    different <= MAX_DIFFERENT_FRACTION);
+        }
+    }
+
+    /**
+     * The frame as the path renderer drew it before compositing was done offscreen
+     */
+    private static void drawLayered(Canvas canvas, String text, float offset, int foreground, int background) {
+        Paint textPaint = TextScrollRenderer.createTextPaint(foreground);
+        Paint emojiPaint = TextScrollRenderer.createTextPaint(background);
+        Path textPath = new Path();
+        Rect textBounds = new Rect();
+        RectF pathBounds = new RectF();
+        Rect scaledBounds = new Rect();
+
+        textPaint.getTextPath(text, 0, text.length(), 0, 0, textPath);
+        textPaint.getTextBounds(text, 0, text.length(), textBounds);
+        pathBounds.set(textBounds);
+        float scaleChange = BOUNDS.height() / pathBounds.height();
+        float width = Math.min(pathBounds.width() * scaleChange, MAX_WIDTH);
+        scaleChange = width / pathBounds.width();
+
+        Matrix transformMatrix = new Matrix();
+        transformMatrix.setScale(scaleChange, scaleChange);
+        textPath.transform(transformMatrix);
+        transformMatrix.mapRect(pathBounds);
+        transformMatrix.setScale(1 / scaleChange, 1 / scaleChange);
+        RectF tempRect = new RectF(BOUNDS);
+        transformMatrix.mapRect(tempRect);
+        tempRect.round(scaledBounds);
+
+        Bitmap emojiBitmap = Bitmap.createBitmap(scaledBounds.width(), scaledBounds.height(), Bitmap.Config.ARGB_8888);
+        Canvas emojiCanvas = new Canvas(emojiBitmap);
+        emojiCanvas.translate(-textBounds.left - offset / scaleChange, -textBounds.top + (scaledBounds.height() - textBounds.height()) / 2);
+        emojiCanvas.drawText(text, 0, 0, emojiPaint);
+
+        Bitmap bitmap = Bitmap.createBitmap((int) BOUNDS.width(), (int) BOUNDS.height(), Bitmap.Config.ARGB_8888);
+        Canvas bitmapCanvas = new Canvas(bitmap);
+        bitmapCanvas.translate(-pathBounds.left - offset, -pathBounds.top + (BOUNDS.height() - pathBounds.height()) / 2);
+        bitmapCanvas.drawPath(textPath, textPaint);
+
+        canvas.drawColor(background);
+        canvas.drawBitmap(emojiBitmap, null, BOUNDS, emojiPaint);
+        canvas.drawBitmap(bitmap, null, BOUNDS, textPaint);
+    }
+
+    /**
+     * @return the fraction of pixels with a channel further apart than the tolerance
+     */
+    private static double compare(Bitmap expected, Bitmap actual) {
+        int[] expectedPixels = new int[WIDTH * HEIGHT];
+        int[] actualPixels = new int[WIDTH * HEIGHT];
+        expected.getPixels(expectedPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        actual.getPixels(actualPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        int different = 0;
+        for (int i = 0; i < expectedPixels.length; i++) {
+            int a = expectedPixels[i];
+            int b = actualPixels[i];
+            if (Math.abs(Color.red(a) - Color.red(b)) > MAX_CHANNEL_DIFFERENCE
+                    || Math.abs(Color.green(a) - Color.green(b)) > MAX_CHANNEL_DIFFERENCE
+                    || Math.abs(Color.blue(a) - Color.blue(b)) > MAX_CHANNEL_DIFFERENCE) {
+                different++;
+            }
+        }
+        return (double) different / expectedPixels.length;
+    }
+
+    private void save(String name, Bitmap bitmap) {
+        File directory = getContext().getExternalFilesDir("golden");
+        if (directory == null || (!directory.isDirectory() && !directory.mkdirs())) {
+            return;
+        }
+        File file = new File(directory, name + ".png");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(file);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save " + file, e);
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to save " + file, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Checks how the message is split into runs, and measures what drawing a frame of them costs on
+ * the device. The cost of a frame should follow the width of the screen and not the length of
+ * the message.
+ */
+public class GlyphRunsTest extends AndroidTestCase {
+    private static final String TAG = "GlyphRunsTest";
+
+    private static final String SENTENCE = "The quick brown fox jumps over the lazy dog. ";
+    private static final int[] REPEATS = {1, 10, 100};
+    private static final int[] SCREEN_WIDTHS = {720, 1440, 2880};
+    private static final int HEIGHT = 600;
+    private static final int FRAMES = 60;
+
+    public void testRightToLeftIsOneRun() {
+        Paint paint = TextScrollRenderer.createTextPaint(0xFF000000);
+        assertEquals(1, new GlyphRuns("שלום עולם hello", paint, 1).size());
+        assertEquals(3, new GlyphRuns("hello big world", paint, 1).size());
+    }
+
+    public void testDrawCostFollowsScreenWidth() {
+        Paint paint = TextScrollRenderer.createTextPaint(0xFF000000);
+        float scale = HEIGHT / (paint.descent() - paint.ascent());
+        int[] visibleRuns = new int[REPEATS.length];
+        for (int width : SCREEN_WIDTHS) {
+            Bitmap bitmap = Bitmap.createBitmap(width, HEIGHT, Bitmap.Config.ALPHA_8);
+            Canvas canvas = new Canvas(bitmap);
+            for (int r = 0; r < REPEATS.length; r++) {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < REPEATS[r]; i++) {
+                    text.append(SENTENCE);
+                }
+                GlyphRuns runs = new GlyphRuns(text.toString(), paint, scale);
+                float textWidth = paint.measureText(SENTENCE) * scale;
+
+                // sweep over the first sentence, which every message has in full
+                int drawn = 0;
+                long start = System.nanoTime();
+                for (int frame = 0; frame < FRAMES; frame++) {
+                    float from = textWidth * frame / FRAMES - width / 2;
+                    canvas.save();
+                    canvas.translate(-from, -paint.ascent() * scale);
+                    drawn = Math.max(drawn, runs.drawPaths(canvas, from, from + width, paint));
+                    canvas.restore();
+                }
+                long perFrame = (System.nanoTime() - start) / FRAMES;
+                Log.i(TAG, String.format(Locale.US, "width %d, %d runs: %.3f ms per frame, %d runs drawn",
+                        width, runs.size(), perFrame / 1e6, drawn));
+                visibleRuns[r] = drawn;
+            }
+            bitmap.recycle();
+            // a longer message only adds the runs of the next sentence that come into the window
+            for (int r = 1; r < REPEATS.length; r++) {
+                assertTrue(visibleRuns[r] <= visibleRuns[0] + SENTENCE.split(" ").length);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SpeculativePreparerTest extends AndroidTestCase {
+    private static final String MESSAGE = "hello world";
+    private static final RectF BOUNDS = new RectF(0, 30, 100, 70);
+    private static final float MAX_WIDTH = 400;
+
+    private static class CountingRenderer extends TextScrollRenderer {
+        int prepares = 0;
+
+        @Override
+        protected Prepared prepare(Layout layout) {
+            prepares++;
+            return new Prepared(layout) {
+                @Override
+                float getWidth() {
+                    return MAX_WIDTH;
+                }
+            };
+        }
+
+        @Override
+        protected void swap(Prepared prepared) {
+        }
+
+        @Override
+        protected void renderImpl(Canvas canvas, float offset) {
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SpeculativePreparer.cancel();
+        super.tearDown();
+    }
+
+    private static void waitForPreparation() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        TextScrollRenderer.getPrepareHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testGuessedPreparationIsComplete() throws Exception {
+        CountingRenderer guesser = new CountingRenderer();
+        SpeculativePreparer.prepare(guesser, MESSAGE, BOUNDS, MAX_WIDTH,
+                TextScrollRenderer.FOREGROUND_COLOR, TextScrollRenderer.BACKGROUND_COLOR);
+        waitForPreparation();
+        assertEquals(1, guesser.prepares);
+
+        CountingRenderer renderer = new CountingRenderer();
+        renderer.setText(MESSAGE);
+        renderer.setBounds(new RectF(BOUNDS));
+        renderer.setMaxWidth(MAX_WIDTH);
+        Canvas canvas = new Canvas(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+        // the guess is drawn from the first frame, and later frames don't ask for more
+        assertTrue(renderer.render(canvas, 0));
+        assertTrue(renderer.render(canvas, 10));
+        waitForPreparation();
+        assertEquals(0, renderer.prepares);
+    }
+}
@@ -0,0 +1,91 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+
+public class StripCacheTest extends AndroidTestCase {
+    private static final int TILE_COUNT = 3;
+
+    private File directory;
+    private StripCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File(getContext().getCacheDir(), "strip-test");
+        deleteDirectory();
+        cache = new StripCache(directory, 1024 * 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static int colorOf(int index) {
+        return Color.rgb(10 * index, 255 - index, 3 * index);
+    }
+
+    private void writeStrip(String key, int version) {
+        Bitmap scratch = Bitmap.createBitmap(16, 8, Bitmap.Config.ARGB_8888);
+        cache.write(key, version, scratch, TILE_COUNT, new StripCache.TileSource() {
+            @Override
+            public boolean draw(int index, Bitmap tile) {
+                tile.eraseColor(colorOf(index));
+                return true;
+            }
+        });
+    }
+
+    public void testRoundTrip() {
+        writeStrip("message", 1);
+        Bitmap tile = Bitmap.createBitmap(16, 8, Bitmap.Config.ARGB_8888);
+        StripCache.Strip strip = cache.open("message", 1, tile, TILE_COUNT);
+        assertNotNull(strip);
+        for (int i = TILE_COUNT - 1; i >= 0; i--) {
+            strip.copyTile(i, tile);
+            assertEquals(colorOf(i), tile.getPixel(0, 0));
+            assertEquals(colorOf(i), tile.getPixel(15, 7));
+        }
+    }
+
+    public void testMismatchesAreMisses() {
+        writeStrip("message", 1);
+        Bitmap tile = Bitmap.createBitmap(16, 8, Bitmap.Config.ARGB_8888);
+        assertNull(cache.open("other message", 1, tile, TILE_COUNT));
+        // an old version is deleted as well as missed
+        assertNull(cache.open("message", 2, tile, TILE_COUNT));
+        assertNull(cache.open("message", 1, tile, TILE_COUNT));
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        // each strip is 1.5KiB, so only the two most recent fit
+        cache = new StripCache(directory, 3 * 1024 + 512);
+        writeStrip("first", 1);
+        Thread.sleep(1000);
+        writeStrip("second", 1);
+        Thread.sleep(1000);
+        Bitmap tile = Bitmap.createBitmap(16, 8, Bitmap.Config.ARGB_8888);
+        assertNotNull(cache.open("first", 1, tile, TILE_COUNT));
+        Thread.sleep(1000);
+        writeStrip("third", 1);
+
+        assertNotNull(cache.open("first", 1, tile, TILE_COUNT));
+        assertNull(cache.open("second", 1, tile, TILE_COUNT));
+        assertNotNull(cache.open("third", 1, tile, TILE_COUNT));
+    }
+}
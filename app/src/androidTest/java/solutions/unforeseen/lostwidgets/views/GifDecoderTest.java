@@ -0,0 +1,98 @@
+package solutions.unforeseen.lostwidgets.views;
+
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import com.benoithiller.textwave.R;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class GifDecoderTest extends AndroidTestCase {
+    /**
+     * A 3x2 GIF of three frames with a transparent index: all six pixels, then a green pixel in
+     * the bottom right that is cleared afterwards, then a transparent pixel in the top left
+     */
+    private static final int[] TINY = {
+            0x47, 0x49, 0x46, 0x38, 0x39, 0x61, 0x03, 0x00, 0x02, 0x00, 0x81, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0xFF, 0x00, 0x00, 0x00, 0xFF, 0x00, 0x00, 0x00, 0xFF, 0x21,
+            0xF9, 0x04, 0x05, 0x05, 0x00, 0x00, 0x00, 0x2C, 0x00, 0x00, 0x00, 0x00, 0x03,
+            0x00, 0x02, 0x00, 0x00, 0x02, 0x04, 0x8C, 0xB8, 0x51, 0x29, 0x00, 0x21, 0xF9,
+            0x04, 0x09, 0x00, 0x00, 0x00, 0x00, 0x2C, 0x02, 0x00, 0x01, 0x00, 0x01, 0x00,
+            0x01, 0x00, 0x00, 0x02, 0x02, 0x54, 0x01, 0x00, 0x21, 0xF9, 0x04, 0x01, 0x02,
+            0x00, 0x00, 0x00, 0x2C, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00,
+            0x02, 0x02, 0x44, 0x01, 0x00, 0x3B
+    };
+
+    private static final int CLEAR = Color.TRANSPARENT;
+    private static final int RED = Color.RED;
+    private static final int GREEN = Color.GREEN;
+    private static final int BLUE = Color.BLUE;
+
+    private static GifDecoder tiny() throws IOException {
+        byte[] bytes = new byte[TINY.length];
+        for (int i = 0; i < TINY.length; i++) {
+            bytes[i] = (byte) TINY[i];
+        }
+        return new GifDecoder(new ByteArrayInputStream(bytes));
+    }
+
+    private static void assertPixels(int[] expected, int[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("pixel " + i, expected[i], actual[i]);
+        }
+    }
+
+    public void testComposesFrames() throws IOException {
+        GifDecoder decoder = tiny();
+        assertEquals(3, decoder.getWidth());
+        assertEquals(2, decoder.getHeight());
+
+        assertTrue(decoder.next());
+        assertPixels(new int[]{RED, GREEN, BLUE, BLUE, GREEN, RED}, decoder.getPixels());
+        assertEquals(50, decoder.getDelay());
+        assertTrue(decoder.isOpaque());
+
+        assertTrue(decoder.next());
+        assertPixels(new int[]{RED, GREEN, BLUE, BLUE, GREEN, GREEN}, decoder.getPixels());
+        // no delay at all is shown for the default instead
+        assertEquals(GifDecoder.DEFAULT_DELAY, decoder.getDelay());
+
+        assertTrue(decoder.next());
+        assertPixels(new int[]{RED, GREEN, BLUE, BLUE, GREEN, CLEAR}, decoder.getPixels());
+        assertEquals(20, decoder.getDelay());
+        assertFalse(decoder.isOpaque());
+
+        assertFalse(decoder.next());
+        assertEquals(2, decoder.getFrameIndex());
+    }
+
+    public void testResumesAfterSkipping() throws IOException {
+        GifDecoder full = tiny();
+        full.next();
+        full.next();
+        int[] second = full.getPixels().clone();
+        full.next();
+
+        GifDecoder skipping = tiny();
+        assertTrue(skipping.skip());
+        assertTrue(skipping.skip());
+        assertTrue(skipping.canResume());
+        skipping.resume(second);
+        assertTrue(skipping.next());
+        assertEquals(2, skipping.getFrameIndex());
+        assertPixels(full.getPixels(), skipping.getPixels());
+    }
+
+    public void testDecodesHelpAnimation() throws IOException {
+        GifDecoder decoder = new GifDecoder(getContext().getResources().openRawResource(R.drawable.animated));
+        int frames = 0;
+        while (decoder.next()) {
+            assertEquals(40, decoder.getDelay());
+            frames++;
+        }
+        decoder.close();
+        assertEquals(101, frames);
+    }
+}
@@ -0,0 +1,125 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bitmaps kept around by size and config once a renderer is done with them, so that laying the
+ * text out again after a rotation or a colour change reuses them instead of allocating new ones.
+ *
+ * Bitmaps are given out and returned on both the preparation and drawing threads, so every method
+ * is synchronized. The contents of a bitmap from the pool are undefined.
+ */
+class BitmapPool {
+    private static BitmapPool instance;
+
+    private final long maxBytes;
+    private final Map<Long, List<Bitmap>> free = new HashMap<>();
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxBytes the most memory the idle bitmaps can hold, returned bitmaps beyond it are
+     *                 recycled
+     */
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the pool shared by all the renderers
+     */
+    static synchronized BitmapPool get() {
+        if (instance == null) {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return instance;
+    }
+
+    private static long key(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Take a bitmap out of the pool, or allocate one if none of the right size is free
+     */
+    synchronized Bitmap obtain(int width, int height, Bitmap.Config config) {
+        List<Bitmap> matching = free.get(key(width, height, config));
+        if (matching != null && !matching.isEmpty()) {
+            Bitmap bitmap = matching.remove(matching.size() - 1);
+            bytes -= sizeOf(bitmap);
+            hits++;
+            return bitmap;
+        }
+        misses++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Give a bitmap back. It must not be drawn or drawn to by the caller afterwards.
+     *
+     * @param bitmap the bitmap, null is ignored
+     */
+    synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        long size = sizeOf(bitmap);
+        if (bytes + size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        List<Bitmap> matching = free.get(key);
+        if (matching == null) {
+            matching = new ArrayList<>();
+            free.put(key, matching);
+        }
+        matching.add(bitmap);
+        bytes += size;
+    }
+
+    /**
+     * Recycle every idle bitmap
+     */
+    synchronized void clear() {
+        for (List<Bitmap> matching : free.values()) {
+            for (Bitmap bitmap : matching) {
+                bitmap.recycle();
+            }
+        }
+        free.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return the memory held by idle bitmaps
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of bitmaps that were reused
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of bitmaps that had to be allocated
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,170 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import com.benoithiller.textwave.core.GlyphIndex;
+
+import java.text.Bidi;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The message split into word sized runs of glyphs, each with its own scaled path, indexed by
+ * horizontal extent so drawing a window of the text only touches the runs inside it.
+ *
+ * Coordinates match a single path made with {@link Paint#getTextPath} at the origin and then
+ * scaled, so the runs can replace one. The runs are placed by measuring the text from the start
+ * of the previous run, so kerning and shaping carry across everything but the word boundaries.
+ * Text that needs reordering for right to left scripts is kept as a single run, as the words
+ * aren't laid out in the order they are stored.
+ */
+class GlyphRuns {
+    private final String text;
+    private final int[] starts;
+    private final int[] ends;
+    private final float[] origins;
+    private final Path[] paths;
+    private final GlyphIndex index;
+
+    /**
+     * @param text  the message
+     * @param paint the paint the message is drawn with, at its unscaled size
+     * @param scale how much the paths are scaled up from the paint's size
+     */
+    public GlyphRuns(String text, Paint paint, float scale) {
+        this.text = text;
+
+        List<int[]> runs = new ArrayList<>();
+        char[] chars = text.toCharArray();
+        if (Bidi.requiresBidi(chars, 0, chars.length)) {
+            runs.add(new int[]{0, text.length()});
+        } else {
+            BreakIterator words = BreakIterator.getWordInstance();
+            words.setText(text);
+            for (int start = words.first(), end = words.next(); end != BreakIterator.DONE; start = end, end = words.next()) {
+                if (!isBlank(text, start, end)) {
+                    runs.add(new int[]{start, end});
+                }
+            }
+        }
+
+        int count = runs.size();
+        final float[] lefts = new float[count];
+        float[] rights = new float[count];
+        float[] runOrigins = new float[count];
+        Path[] runPaths = new Path[count];
+
+        Matrix scaleMatrix = new Matrix();
+        scaleMatrix.setScale(scale, scale);
+        RectF runBounds = new RectF();
+        float x = 0;
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int[] run = runs.get(i);
+            x += paint.measureText(text, position, run[0]);
+            position = run[0];
+            float advance = paint.measureText(text, run[0], run[1]);
+
+            Path path = new Path();
+            paint.getTextPath(text, run[0], run[1], x, 0, path);
+            path.transform(scaleMatrix);
+            path.computeBounds(runBounds, true);
+
+            // colour glyphs have no outline, so their advance counts as their extent too
+            lefts[i] = x * scale;
+            rights[i] = (x + advance) * scale;
+            if (!runBounds.isEmpty()) {
+                lefts[i] = Math.min(lefts[i], runBounds.left);
+                rights[i] = Math.max(rights[i], runBounds.right);
+            }
+            runOrigins[i] = x;
+            runPaths[i] = path;
+        }
+
+        // overhanging glyphs can start before the run ahead of them
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(lefts[a], lefts[b]);
+            }
+        });
+
+        starts = new int[count];
+        ends = new int[count];
+        origins = new float[count];
+        paths = new Path[count];
+        index = new GlyphIndex(count);
+        for (int i = 0; i < count; i++) {
+            int run = order[i];
+            starts[i] = runs.get(run)[0];
+            ends[i] = runs.get(run)[1];
+            origins[i] = runOrigins[run];
+            paths[i] = runPaths[run];
+            index.add(lefts[run], rights[run]);
+        }
+    }
+
+    private static boolean isBlank(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of runs
+     */
+    public int size() {
+        return paths.length;
+    }
+
+    /**
+     * Draw the outlines of the runs that overlap a horizontal range of the scaled text
+     *
+     * @param canvas the canvas, translated the same as it would be for a single path
+     * @param from   the left of the range
+     * @param to     the right of the range
+     * @param paint  the paint to fill the outlines with
+     * @return the number of runs drawn
+     */
+    public int drawPaths(Canvas canvas, float from, float to, Paint paint) {
+        int drawn = 0;
+        for (int i = index.start(from), end = index.end(to); i < end; i++) {
+            if (index.overlaps(i, from, to)) {
+                canvas.drawPath(paths[i], paint);
+                drawn++;
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Draw the runs that overlap a horizontal range of the scaled text as unscaled text, as is
+     * needed for colour glyphs
+     *
+     * @param canvas the canvas, translated the same as it would be to draw the whole text at 0
+     * @param from   the left of the range in scaled coordinates
+     * @param to     the right of the range in scaled coordinates
+     * @param y      the baseline to draw at
+     * @param paint  the paint to draw with, at its unscaled size
+     */
+    public void drawText(Canvas canvas, float from, float to, float y, Paint paint) {
+        for (int i = index.start(from), end = index.end(to); i < end; i++) {
+            if (index.overlaps(i, from, to)) {
+                canvas.drawText(text, starts[i], ends[i], origins[i], y, paint);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.benoithiller.textwave;
 import android.app.Activity;
 import android.os.Bundle;
 import android.view.View;
+import solutions.unforeseen.lostwidgets.views.MovieView;
 
 /**
  * Activity for the help screen
@@ -15,6 +16,18 @@ public class HelpActivity extends Activity {
         setContentView(R.layout.activity_help);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        ((MovieView) findViewById(R.id.help_movie)).onPause();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        ((MovieView) findViewById(R.id.help_movie)).onResume();
+    }
+
     public void close(View view) {
         setResult(RESULT_OK, getIntent());
         finish();
@@ -5,29 +5,189 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.graphics.Color;
+import android.graphics.Point;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.Display;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ToggleButton;
+import com.benoithiller.textwave.core.OffsetMapping;
 
 public class MainActivity extends Activity {
 
     private static final String SEEN_HELP = "com.benoithiller.textwave.SEEN_HELP";
 
+    /**
+     * How long the message has to stay unchanged before it is prepared ahead of time
+     */
+    private static final long SPECULATION_DELAY = 400;
+
+    /**
+     * How long after the main screen is created to start the calibration, so it doesn't compete
+     * with the first frames
+     */
+    private static final long CALIBRATION_DELAY = 2000;
+
+    private final Handler handler = new Handler();
+    private final Runnable speculate = new Runnable() {
+        @Override
+        public void run() {
+            speculate();
+        }
+    };
+    private final Runnable calibrate = new Runnable() {
+        @Override
+        public void run() {
+            // pick the renderer that suits this device, after installing or updating
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(MainActivity.this);
+            RendererCalibration.runIfNeeded(MainActivity.this, getScrollerBounds(),
+                    OffsetMapping.maxWidth(getArmLength(preferences), getResources().getDisplayMetrics().xdpi));
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
         setContentView(R.layout.activity_main);
+
+        handler.postDelayed(calibrate, CALIBRATION_DELAY);
+
+        EditText scrollText = (EditText) findViewById(R.id.scroll_text);
+        scrollText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                scheduleSpeculation();
+            }
+        });
+        CompoundButton.OnCheckedChangeListener toggled = new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                scheduleSpeculation();
+            }
+        };
+        ((ToggleButton) findViewById(R.id.all_caps_toggle)).setOnCheckedChangeListener(toggled);
+        ((ToggleButton) findViewById(R.id.dark_mode_toggle)).setOnCheckedChangeListener(toggled);
+        ((ToggleButton) findViewById(R.id.long_range_toggle)).setOnCheckedChangeListener(toggled);
     }
 
-    public void showMessage(View view) {
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // the settings might have changed
+        scheduleSpeculation();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // the guess is only useful if Show is tapped soon
+        handler.removeCallbacks(speculate);
+        SpeculativePreparer.cancel();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(speculate);
+        handler.removeCallbacks(calibrate);
+    }
+
+    /**
+     * Throw away the current guess at the message and make a new one once the options have
+     * settled
+     */
+    private void scheduleSpeculation() {
+        handler.removeCallbacks(speculate);
+        SpeculativePreparer.cancel();
+        handler.postDelayed(speculate, SPECULATION_DELAY);
+    }
+
+    /**
+     * Prepare the message as it would be shown right now, on the renderer and at the size the
+     * scroller would use. Before KitKat the size isn't known ahead of time, see
+     * {@link #getScrollerBounds()}, so nothing is prepared.
+     */
+    private void speculate() {
+        String text = getMessage();
+        if (text.isEmpty() || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        TextScrollRenderer renderer = RendererRegistry.create(RendererRegistry.choose(preferences));
+        RectF bounds = getScrollerBounds();
+        float maxWidth = OffsetMapping.maxWidth(getArmLength(preferences), getResources().getDisplayMetrics().xdpi);
+
+        boolean darkMode = ((ToggleButton) findViewById(R.id.dark_mode_toggle)).isChecked();
+        SpeculativePreparer.prepare(renderer, text, bounds, maxWidth,
+                darkMode ? Color.WHITE : TextScrollRenderer.FOREGROUND_COLOR,
+                darkMode ? Color.BLACK : TextScrollRenderer.BACKGROUND_COLOR);
+    }
+
+    /**
+     * From KitKat the scroller is immersive and fills the whole screen. Before that the status and
+     * navigation bars stay, so this is only close, which is good enough for timing the renderers.
+     *
+     * @return the area the scroller will draw the text in, in the same orientation
+     */
+    private RectF getScrollerBounds() {
+        Display display = getWindowManager().getDefaultDisplay();
+        Point size = new Point();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            display.getRealSize(size);
+        } else {
+            display.getSize(size);
+        }
+        return new RectF(0, TextScrollerActivity.VERTICAL_PADDING, size.x,
+                size.y - TextScrollerActivity.VERTICAL_PADDING);
+    }
+
+    /**
+     * @return the message as it will be shown
+     */
+    private String getMessage() {
         EditText scrollText = (EditText) findViewById(R.id.scroll_text);
         String text = scrollText.getText().toString();
+        ToggleButton capsToggle = (ToggleButton) findViewById(R.id.all_caps_toggle);
+        if (capsToggle.isChecked()) {
+            text = text.toUpperCase();
+        }
+        return text;
+    }
+
+    private int getArmLength(SharedPreferences preferences) {
+        int armLength = preferences.getInt("arm_length_preference", R.integer.default_arm_length);
+        ToggleButton longRangeToggle = (ToggleButton) findViewById(R.id.long_range_toggle);
+        if (!longRangeToggle.isChecked()) {
+            armLength = armLength / 2;
+        }
+        return armLength;
+    }
+
+    public void showMessage(View view) {
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.begin("MainActivity.showMessage");
+        }
+        String text = getMessage();
         if (text.isEmpty()) {
             new AlertDialog.Builder(this)
                     .setTitle("Invalid message")
@@ -39,12 +199,6 @@ public class MainActivity extends Activity {
                         }
                     }).show();
         } else {
-
-            ToggleButton capsToggle = (ToggleButton) findViewById(R.id.all_caps_toggle);
-            if (capsToggle.isChecked()) {
-                text = text.toUpperCase();
-            }
-
             SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
             boolean seenHelp = preferences.getBoolean(SEEN_HELP, false);
             Intent intent;
@@ -60,22 +214,36 @@ public class MainActivity extends Activity {
             ToggleButton darkModeToggle = (ToggleButton) findViewById(R.id.dark_mode_toggle);
             intent.putExtra(TextScrollerActivity.DARK_MODE, darkModeToggle.isChecked());
 
-            int armLength = preferences.getInt("arm_length_preference", R.integer.default_arm_length);
-            ToggleButton longRangeToggle = (ToggleButton) findViewById(R.id.long_range_toggle);
-            if (!longRangeToggle.isChecked()) {
-                armLength = armLength / 2;
-            }
-
-            intent.putExtra(TextScrollerActivity.ARM_LENGTH, armLength);
+            intent.putExtra(TextScrollerActivity.ARM_LENGTH, getArmLength(preferences));
 
             intent.putExtra(TextScrollerActivity.VIBRATE, preferences.getBoolean("vibrate_preference", true));
 
+            intent.putExtra(TextScrollerActivity.RENDER_THREAD, preferences.getBoolean("render_thread_preference", true));
+
+            intent.putExtra(TextScrollerActivity.FILTER, preferences.getString("filter_preference", "exponential"));
+
+            intent.putExtra(TextScrollerActivity.FAST_MATH, preferences.getBoolean("fast_math_preference", false));
+
+            intent.putExtra(TextScrollerActivity.CURVE, preferences.getString("curve_preference", "sinusoidal"));
+
+            intent.putExtra(TextScrollerActivity.RECORD_TRACE, preferences.getBoolean("record_trace_preference", false));
+
+            intent.putExtra(TextScrollerActivity.PERF_STATS, preferences.getBoolean("perf_stats_preference", false));
+
+            intent.putExtra(TextScrollerActivity.RENDERER, RendererRegistry.choose(preferences));
+
             if (seenHelp) {
+                if (BuildConfig.TRACE_SECTIONS) {
+                    TraceSections.markShow();
+                }
                 startActivity(intent);
             } else {
                 startActivityForResult(intent, 1);
             }
         }
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.end();
+        }
     }
 
     public void showHelp(View view) {
@@ -94,6 +262,10 @@ public class MainActivity extends Activity {
 
             Intent intent = new Intent(data);
             intent.setClass(this, TextScrollerActivity.class);
+            // the time spent reading the help isn't part of the launch
+            if (BuildConfig.TRACE_SECTIONS) {
+                TraceSections.markShow();
+            }
             startActivity(intent);
         }
     }
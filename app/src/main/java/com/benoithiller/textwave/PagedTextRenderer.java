@@ -0,0 +1,499 @@
+package com.benoithiller.textwave;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.Process;
+import android.util.Log;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renderer that keeps the text at the full height of the screen and splits long messages into
+ * pages that each fit in a single sweep of the arm. Every time the wave reaches an end the next
+ * page is shown.
+ *
+ * Only the page break positions are worked out up front. The path for a page is built the first
+ * time one of its tiles is needed, and tiles are rasterized on a pool of worker threads ahead of
+ * the direction of the wave, including the start of the next page as a sweep nears its end. The
+ * {@link TileCache}, the paths and the work in flight are all limited to a few pages, so memory
+ * use doesn't grow with the length of the message. Tile hits, including finished prefetches, and
+ * misses are counted in the {@link PerfStats}.
+ *
+ * Like the tiled renderer, text without colour glyphs is cut into {@link Bitmap.Config#ALPHA_8}
+ * tiles that are tinted over the background as they are drawn, trading a second write of every
+ * pixel for a quarter of the tile memory, and tile bitmaps are shared through the
+ * {@link BitmapPool}.
+ */
+class PagedTextRenderer extends TextScrollRenderer {
+    private static final String TAG = "PagedTextRenderer";
+
+    /**
+     * Number of tiles rasterized ahead of the visible window
+     */
+    private static final int PREFETCH_TILES = 8;
+
+    /**
+     * Tiles are keyed by page and index, this is the most tiles a page can have
+     */
+    private static final long PAGE_STRIDE = 1L << 32;
+
+    private static ExecutorService rasterizers;
+
+    // every rasterizer made so far, so their scratch bitmaps can be released on trim
+    private static final List<Rasterizer> allRasterizers = new ArrayList<>();
+
+    private static final ThreadLocal<Rasterizer> RASTERIZER = new ThreadLocal<Rasterizer>() {
+        @Override
+        protected Rasterizer initialValue() {
+            Rasterizer rasterizer = new Rasterizer();
+            synchronized (allRasterizers) {
+                allRasterizers.add(rasterizer);
+            }
+            return rasterizer;
+        }
+    };
+
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint maskPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final TileCache tiles = new TileCache();
+    private final Map<Long, Future<Bitmap>> pending = new LinkedHashMap<>();
+
+    private PageLayout current;
+    private int page = 0;
+    private float lastOffset = 0;
+
+    /**
+     * A run of the message that fits in one sweep
+     */
+    private static class Page {
+        final int start;
+        final int end;
+        final float width;
+        final int tileCount;
+        private Path path;
+
+        Page(int start, int end, float width) {
+            this.start = start;
+            this.end = end;
+            this.width = width;
+            tileCount = (int) Math.ceil(width / TileCache.TILE_WIDTH);
+        }
+
+        /**
+         * Build the scaled path of the page if it doesn't exist yet. Tiles of the same page can be
+         * rasterized at the same time, so only the first one builds it.
+         *
+         * @param paint a text paint owned by the calling thread
+         */
+        synchronized Path getPath(PageLayout layout, Paint paint) {
+            if (path == null) {
+                path = new Path();
+                paint.getTextPath(layout.layout.text, start, end, 0, layout.baseline, path);
+                Matrix scale = new Matrix();
+                scale.setScale(layout.scale, layout.scale);
+                path.transform(scale);
+            }
+            return path;
+        }
+
+        synchronized void releasePath() {
+            path = null;
+        }
+    }
+
+    /**
+     * The page breaks and the scale the text is drawn at
+     */
+    private static class PageLayout extends Prepared {
+        final List<Page> pages = new ArrayList<>();
+        final float scale;
+        final float baseline;
+        final int tileHeight;
+        /**
+         * Whether the tiles are only masks of the outlines
+         */
+        final boolean mask;
+
+        PageLayout(Layout layout) {
+            super(layout);
+            mask = !hasColorGlyphs(layout.text);
+            Paint paint = createTextPaint(layout.foregroundColor);
+            Paint.FontMetrics metrics = paint.getFontMetrics();
+            float textHeight = metrics.descent - metrics.ascent;
+            scale = layout.bounds.height() / textHeight;
+            baseline = -metrics.ascent;
+            tileHeight = (int) layout.bounds.height();
+            paginate(paint, layout.text, layout.maxWidth / scale);
+        }
+
+        /**
+         * Split the text greedily into pages, breaking between words where possible
+         */
+        private void paginate(Paint paint, String text, float pageWidth) {
+            BreakIterator breaks = BreakIterator.getLineInstance();
+            breaks.setText(text);
+            int length = text.length();
+            int start = 0;
+            while (start < length) {
+                // leading spaces would only leave a gap at the start of the page
+                while (start < length && Character.isWhitespace(text.charAt(start))) {
+                    start++;
+                }
+                if (start == length) {
+                    break;
+                }
+                int end = start + paint.breakText(text, start, length, true, pageWidth, null);
+                if (end < length) {
+                    int wordEnd = breaks.preceding(end + 1);
+                    if (wordEnd > start) {
+                        end = wordEnd;
+                    } else if (end > start && Character.isHighSurrogate(text.charAt(end - 1))) {
+                        // a single word wider than the page has to be cut, but not mid character
+                        end--;
+                    }
+                }
+                if (end <= start) {
+                    end = start + Character.charCount(text.codePointAt(start));
+                }
+                int trimmed = end;
+                while (trimmed > start && Character.isWhitespace(text.charAt(trimmed - 1))) {
+                    trimmed--;
+                }
+                pages.add(new Page(start, trimmed, paint.measureText(text, start, trimmed) * scale));
+                start = end;
+            }
+        }
+
+        @Override
+        float getWidth() {
+            return pages.isEmpty() ? 0 : pages.get(0).width;
+        }
+    }
+
+    /**
+     * Per thread drawing state, so tiles can be rasterized on several threads at once. The drawing
+     * thread can release the scratch bitmap of any of them, so drawing holds the lock.
+     */
+    private static class Rasterizer {
+        private final Canvas tileCanvas = new Canvas();
+        private final Canvas emojiCanvas = new Canvas();
+        private final RectF emojiDestination = new RectF();
+        private Bitmap emojiBitmap;
+        private Paint textPaint;
+        private Paint emojiPaint;
+
+        synchronized void draw(PageLayout layout, Page page, int index, Bitmap tile) {
+            if (textPaint == null) {
+                textPaint = createTextPaint(layout.layout.foregroundColor);
+                emojiPaint = createTextPaint(layout.layout.backgroundColor);
+            }
+            textPaint.setColor(layout.layout.foregroundColor);
+            emojiPaint.setColor(layout.layout.backgroundColor);
+
+            float left = index * TileCache.TILE_WIDTH;
+
+            tileCanvas.setBitmap(tile);
+            if (layout.mask) {
+                tile.eraseColor(Color.TRANSPARENT);
+            } else {
+                drawEmoji(layout, page, left, tile);
+            }
+
+            tileCanvas.save();
+            tileCanvas.translate(-left, 0);
+            tileCanvas.drawPath(page.getPath(layout, textPaint), textPaint);
+            tileCanvas.restore();
+            tileCanvas.setBitmap(null);
+        }
+
+        /**
+         * Fill a tile with the background and the colour glyphs that overlap it
+         */
+        private void drawEmoji(PageLayout layout, Page page, float left, Bitmap tile) {
+            // colour glyphs can't be drawn at the full scaled size, so like the other renderers
+            // they are drawn small and stretched up to the size of the tile
+            int emojiWidth = (int) Math.ceil(TileCache.TILE_WIDTH / layout.scale);
+            int emojiHeight = Math.round(layout.tileHeight / layout.scale);
+            if (emojiBitmap == null
+                    || emojiBitmap.getWidth() != emojiWidth
+                    || emojiBitmap.getHeight() != emojiHeight) {
+                release();
+                emojiBitmap = BitmapPool.get().obtain(emojiWidth, emojiHeight, Bitmap.Config.ARGB_8888);
+                emojiCanvas.setBitmap(emojiBitmap);
+            }
+            emojiDestination.set(0, 0, emojiWidth * layout.scale, emojiHeight * layout.scale);
+
+            emojiBitmap.eraseColor(Color.TRANSPARENT);
+            emojiCanvas.save();
+            emojiCanvas.translate(-left / layout.scale, 0);
+            emojiCanvas.drawText(layout.layout.text, page.start, page.end, 0, layout.baseline, emojiPaint);
+            emojiCanvas.restore();
+
+            tile.eraseColor(layout.layout.backgroundColor);
+            tile.setHasAlpha(Color.alpha(layout.layout.backgroundColor) != 0xFF);
+            tileCanvas.drawBitmap(emojiBitmap, null, emojiDestination, emojiPaint);
+        }
+
+        synchronized void release() {
+            if (emojiBitmap != null) {
+                emojiCanvas.setBitmap(null);
+                BitmapPool.get().release(emojiBitmap);
+                emojiBitmap = null;
+            }
+        }
+    }
+
+    private static class TileJob implements Callable<Bitmap> {
+        private final PageLayout layout;
+        private final Page page;
+        private final int index;
+        private final Bitmap tile;
+
+        TileJob(PageLayout layout, Page page, int index, Bitmap tile) {
+            this.layout = layout;
+            this.page = page;
+            this.index = index;
+            this.tile = tile;
+        }
+
+        @Override
+        public Bitmap call() {
+            RASTERIZER.get().draw(layout, page, index, tile);
+            return tile;
+        }
+    }
+
+    private static synchronized ExecutorService getRasterizers() {
+        if (rasterizers == null) {
+            // leave a core for the render and sensor threads
+            int threads = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+            rasterizers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                            runnable.run();
+                        }
+                    }, "TileRasterizer-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return rasterizers;
+    }
+
+    private static long key(int page, int index) {
+        return page * PAGE_STRIDE + index;
+    }
+
+    private static int pageOf(long key) {
+        return (int) (key / PAGE_STRIDE);
+    }
+
+    @Override
+    protected Prepared prepare(Layout layout) {
+        return new PageLayout(layout);
+    }
+
+    @Override
+    protected void swap(Prepared prepared) {
+        cancelPending();
+        current = (PageLayout) prepared;
+        tiles.reset(current.layout.bounds, current.mask);
+        maskPaint.setColor(current.layout.foregroundColor);
+        page = 0;
+    }
+
+    @Override
+    protected void trimCaches(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
+        cancelPending();
+        tiles.clear();
+        synchronized (allRasterizers) {
+            // waits for any tile still being drawn with the scratch bitmap
+            for (Rasterizer rasterizer : allRasterizers) {
+                rasterizer.release();
+            }
+        }
+        if (current != null) {
+            // the paths are built again the next time a tile of the page is needed
+            for (Page other : current.pages) {
+                other.releasePath();
+            }
+        }
+    }
+
+    @Override
+    public void onEdge(int edge) {
+        if (current == null || current.pages.size() < 2) {
+            return;
+        }
+        int count = current.pages.size();
+        // only the pages either side of the one showing keep their paths
+        current.pages.get((page + count - 1) % count).releasePath();
+        page = (page + 1) % count;
+        setScrollWidth(current.pages.get(page).width);
+    }
+
+    @Override
+    protected void renderImpl(Canvas canvas, float offset) {
+        PageLayout current = this.current;
+        RectF bounds = current.layout.bounds;
+        if (current.pages.isEmpty()) {
+            canvas.drawColor(current.layout.backgroundColor);
+            return;
+        }
+        Page visible = current.pages.get(page);
+
+        int first = Math.max((int) Math.floor(offset / TileCache.TILE_WIDTH), 0);
+        int last = Math.min((int) Math.floor((offset + bounds.width()) / TileCache.TILE_WIDTH), visible.tileCount - 1);
+
+        Paint paint = tilePaint;
+        if (current.mask) {
+            canvas.drawColor(current.layout.backgroundColor);
+            paint = maskPaint;
+        } else {
+            // the tiles are opaque, so the background only needs filling where there aren't any
+            fillAround(canvas, Math.max(bounds.left + first * TileCache.TILE_WIDTH - offset, bounds.left), bounds.top,
+                    Math.min(bounds.left + (last + 1) * TileCache.TILE_WIDTH - offset, bounds.right), bounds.bottom,
+                    current.layout.backgroundColor);
+        }
+
+        canvas.save();
+        canvas.clipRect(bounds);
+        for (int index = first; index <= last; index++) {
+            Bitmap tile = getTile(page, index);
+            canvas.drawBitmap(tile, bounds.left + index * TileCache.TILE_WIDTH - offset, bounds.top, paint);
+        }
+        canvas.restore();
+
+        prefetch(offset, first, last);
+    }
+
+    /**
+     * Queue the tiles the wave is heading towards
+     */
+    private void prefetch(float offset, int first, int last) {
+        int direction = offset > lastOffset ? 1 : offset < lastOffset ? -1 : 0;
+        lastOffset = offset;
+        reclaimStale();
+        if (direction == 0) {
+            return;
+        }
+        Page visible = current.pages.get(page);
+        int ahead = direction > 0 ? last + 1 : first - 1;
+        int queued = 0;
+        for (; queued < PREFETCH_TILES && ahead >= 0 && ahead < visible.tileCount; queued++) {
+            submit(page, ahead);
+            ahead += direction;
+        }
+        if (queued < PREFETCH_TILES && current.pages.size() > 1) {
+            // near the end of the sweep, so start on the same end of the next page
+            int nextPage = (page + 1) % current.pages.size();
+            Page next = current.pages.get(nextPage);
+            int index = direction > 0 ? next.tileCount - 1 : 0;
+            for (; queued < PREFETCH_TILES && index >= 0 && index < next.tileCount; queued++) {
+                submit(nextPage, index);
+                index -= direction;
+            }
+        }
+    }
+
+    private void submit(int page, int index) {
+        long key = key(page, index);
+        if (tiles.contains(key) || pending.containsKey(key)) {
+            return;
+        }
+        Page target = current.pages.get(page);
+        pending.put(key, getRasterizers().submit(new TileJob(current, target, index, tiles.obtain())));
+    }
+
+    /**
+     * Give back the bitmaps of finished prefetches for pages that are no longer coming up
+     */
+    private void reclaimStale() {
+        int nextPage = (page + 1) % current.pages.size();
+        Iterator<Map.Entry<Long, Future<Bitmap>>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Long, Future<Bitmap>> entry = entries.next();
+            int tilePage = pageOf(entry.getKey());
+            if (tilePage != page && tilePage != nextPage && entry.getValue().isDone()) {
+                Bitmap tile = await(entry.getValue());
+                if (tile != null) {
+                    tiles.recycle(tile);
+                }
+                entries.remove();
+            }
+        }
+    }
+
+    private Bitmap getTile(int page, int index) {
+        long key = key(page, index);
+        Bitmap tile = tiles.get(key);
+        PerfStats stats = getPerfStats();
+        if (tile != null) {
+            if (stats != null) {
+                stats.onTileLookup(true);
+            }
+            return tile;
+        }
+
+        Future<Bitmap> prefetched = pending.remove(key);
+        if (prefetched != null) {
+            // waits at most for the one tile if it is still being drawn
+            tile = await(prefetched);
+        }
+        if (stats != null) {
+            stats.onTileLookup(tile != null);
+        }
+        if (tile == null) {
+            tile = tiles.obtain();
+            RASTERIZER.get().draw(current, current.pages.get(page), index, tile);
+        }
+        tiles.put(key, tile);
+        return tile;
+    }
+
+    private static Bitmap await(Future<Bitmap> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to rasterize tile", e.getCause());
+        }
+        return null;
+    }
+
+    private void cancelPending() {
+        for (Future<Bitmap> prefetched : pending.values()) {
+            // anything already running just finishes and is collected
+            prefetched.cancel(false);
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,203 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import com.benoithiller.textwave.core.QualityController;
+
+/**
+ * Renderer that redraws the scaled text path into a screen sized bitmap on every frame. Only the
+ * runs of glyphs inside the visible window are drawn, and they are composited over the
+ * background offscreen so the frame reaches the screen in one pass.
+ *
+ * Text without colour glyphs skips the colour glyph layer. The frame bitmap stays opaque
+ * {@link Bitmap.Config#ARGB_8888} even then. An {@link Bitmap.Config#ALPHA_8} mask would need the
+ * screen filled with the background before it is tinted over it, which writes every pixel twice.
+ * There is only one frame bitmap, so the memory an alpha mask saves isn't worth that.
+ *
+ * Redrawing the paths is the slowest part of a frame on low end devices. Given a frame budget, the
+ * bitmap is drawn at a lower resolution and scaled up, or without anti-aliasing, while frames take
+ * too long, see {@link QualityController}.
+ */
+class PathTextRenderer extends TextScrollRenderer {
+
+    private PathLayout current;
+
+    // only used on the drawing thread
+    private QualityController quality;
+    // read by the preparation thread so new layouts start at the quality in use
+    private volatile float resolution = 1;
+    private volatile boolean antiAlias = true;
+
+    /**
+     * The scaled glyph runs and the bitmaps they are drawn through
+     */
+    private static class PathLayout extends Prepared {
+        final Paint textPaint;
+        final Paint emojiPaint;
+        GlyphRuns runs;
+        final RectF pathBounds = new RectF();
+        final Rect textBounds = new Rect();
+        final Rect scaledBounds = new Rect();
+        final RectF frameBounds = new RectF();
+        final RectF screenBounds = new RectF();
+        final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        /**
+         * Whether there are colour glyphs, which are drawn through their own layer
+         */
+        boolean colorGlyphs;
+        Bitmap bitmap;
+        Canvas bitmapCanvas;
+        Bitmap emojiBitmap;
+        Canvas emojiCanvas;
+        float scaleChange;
+        /**
+         * Size of the bitmap as a fraction of the screen
+         */
+        float resolution;
+        boolean antiAlias;
+
+        PathLayout(Layout layout) {
+            super(layout);
+            textPaint = createTextPaint(layout.foregroundColor);
+            emojiPaint = createTextPaint(layout.backgroundColor);
+        }
+
+        @Override
+        float getWidth() {
+            return pathBounds.width();
+        }
+
+        @Override
+        void release() {
+            BitmapPool pool = BitmapPool.get();
+            pool.release(bitmap);
+            pool.release(emojiBitmap);
+        }
+    }
+
+    @Override
+    public void setFrameBudget(long nanos) {
+        quality = new QualityController(nanos);
+    }
+
+    @Override
+    public void renderImpl(Canvas canvas, float offset) {
+        PathLayout current = this.current;
+        if (current.resolution != resolution || current.antiAlias != antiAlias) {
+            setQuality(current, resolution, antiAlias);
+        }
+
+        long start = System.nanoTime();
+        draw(current, canvas, offset);
+        if (quality != null && quality.onFrame(System.nanoTime() - start)) {
+            // the bitmap is replaced at the start of the next frame so this one isn't timed
+            resolution = quality.getResolution();
+            antiAlias = quality.isAntiAlias();
+        }
+    }
+
+    private static void draw(PathLayout current, Canvas canvas, float offset) {
+        RectF bounds = current.layout.bounds;
+        RectF pathBounds = current.pathBounds;
+        Rect textBounds = current.textBounds;
+        float from = pathBounds.left + offset;
+        float to = from + bounds.width();
+
+        // composite the background, colour glyphs and outlines offscreen so the screen only gets
+        // a single opaque blit
+        current.bitmap.eraseColor(current.layout.backgroundColor);
+        if (current.colorGlyphs) {
+            current.emojiBitmap.eraseColor(Color.TRANSPARENT);
+            current.emojiCanvas.save();
+            current.emojiCanvas.translate(-textBounds.left - offset / current.scaleChange, -textBounds.top + (current.scaledBounds.height() - textBounds.height()) / 2);
+            current.runs.drawText(current.emojiCanvas, from, to, 0, current.emojiPaint);
+            current.emojiCanvas.restore();
+            current.bitmapCanvas.drawBitmap(current.emojiBitmap, null, current.frameBounds, current.emojiPaint);
+        }
+        current.bitmapCanvas.save();
+        current.bitmapCanvas.translate(-pathBounds.left - offset, -pathBounds.top + (bounds.height() - pathBounds.height()) / 2);
+        current.runs.drawPaths(current.bitmapCanvas, from, to, current.textPaint);
+        current.bitmapCanvas.restore();
+
+        RectF screenBounds = current.screenBounds;
+        fillAround(canvas, screenBounds.left, screenBounds.top, screenBounds.right, screenBounds.bottom,
+                current.layout.backgroundColor);
+        canvas.drawBitmap(current.bitmap, null, screenBounds, current.resolution < 1 ? current.scalePaint : null);
+    }
+
+    /**
+     * Replace the bitmap the text is drawn into with one at another resolution. The canvas is
+     * scaled so everything is still drawn in screen coordinates.
+     */
+    private static void setQuality(PathLayout prepared, float resolution, boolean antiAlias) {
+        RectF bounds = prepared.layout.bounds;
+        int width = (int) bounds.width();
+        int height = (int) bounds.height();
+        prepared.screenBounds.set(bounds.left, bounds.top, bounds.left + width, bounds.top + height);
+
+        BitmapPool pool = BitmapPool.get();
+        pool.release(prepared.bitmap);
+        int scaledWidth = Math.max(1, Math.round(width * resolution));
+        int scaledHeight = Math.max(1, Math.round(height * resolution));
+        prepared.bitmap = pool.obtain(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
+        prepared.bitmap.setHasAlpha(Color.alpha(prepared.layout.backgroundColor) != 0xFF);
+        prepared.bitmapCanvas = new Canvas(prepared.bitmap);
+        prepared.bitmapCanvas.scale((float) scaledWidth / width, (float) scaledHeight / height);
+        prepared.resolution = resolution;
+
+        prepared.antiAlias = antiAlias;
+        prepared.textPaint.setAntiAlias(antiAlias);
+        prepared.emojiPaint.setAntiAlias(antiAlias);
+    }
+
+    @Override
+    protected void swap(Prepared prepared) {
+        current = (PathLayout) prepared;
+    }
+
+    @Override
+    protected Prepared prepare(Layout layout) {
+        PathLayout prepared = new PathLayout(layout);
+        String text = layout.text;
+        RectF bounds = layout.bounds;
+        RectF pathBounds = prepared.pathBounds;
+        Rect textBounds = prepared.textBounds;
+
+        prepared.textPaint.getTextBounds(text, 0, text.length(), textBounds);
+
+        pathBounds.set(textBounds);
+
+        float scaleChange = bounds.height() / pathBounds.height();
+
+        float width = Math.min(pathBounds.width() * scaleChange, layout.maxWidth);
+        scaleChange = width / pathBounds.width();
+        prepared.scaleChange = scaleChange;
+
+        Matrix transformMatrix = new Matrix();
+        transformMatrix.setScale(scaleChange, scaleChange);
+
+        transformMatrix.mapRect(pathBounds);
+        prepared.runs = new GlyphRuns(text, prepared.textPaint, scaleChange);
+
+        transformMatrix.setScale(1 / scaleChange, 1 / scaleChange);
+        RectF tempRect = new RectF(bounds);
+        transformMatrix.mapRect(tempRect);
+        tempRect.round(prepared.scaledBounds);
+
+        BitmapPool pool = BitmapPool.get();
+        prepared.colorGlyphs = hasColorGlyphs(text);
+        if (prepared.colorGlyphs) {
+            prepared.emojiBitmap = pool.obtain(prepared.scaledBounds.width(), prepared.scaledBounds.height(), Bitmap.Config.ARGB_8888);
+            prepared.emojiCanvas = new Canvas(prepared.emojiBitmap);
+        }
+        setQuality(prepared, resolution, antiAlias);
+        prepared.frameBounds.set(0, 0, bounds.width(), bounds.height());
+        return prepared;
+    }
+}
@@ -0,0 +1,381 @@
+package com.benoithiller.textwave;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Process;
+import android.util.Log;
+import com.benoithiller.textwave.core.LatencyHistogram;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+
+/**
+ * Counters and latency histograms for the sensor and drawing paths, with an optional overlay to
+ * show them on top of the text.
+ *
+ * Sensor events are counted on the sensor thread, preparation times on the renderer's preparation
+ * thread and everything else on the thread doing the drawing. Nothing allocates while recording;
+ * the overlay text is only rebuilt a couple of times a second.
+ *
+ * The time spent with the sensors idle is split from the time spent waving, along with the CPU
+ * time the whole process used in each. The CPU saved is what the idle time would have cost at the
+ * rate CPU is used while waving, less what it did cost.
+ */
+class PerfStats {
+    private static final String TAG = "PerfStats";
+
+    private static final long OVERLAY_REFRESH = 500000000L;
+
+    /**
+     * Gaps between frames longer than this are taken as the display being idle rather than
+     * dropped frames.
+     */
+    private static final long IDLE_GAP = 250000000L;
+
+    private final long framePeriod;
+    private final float calibratedSensorRate;
+    private final long startGcCount;
+    private final long startBitmapHits;
+    private final long startBitmapMisses;
+
+    private final LatencyHistogram sensorToDraw = new LatencyHistogram();
+    private final LatencyHistogram render = new LatencyHistogram();
+    private final LatencyHistogram updateData = new LatencyHistogram();
+
+    // only written from the sensor thread
+    private volatile long sensorEvents = 0;
+    // only written from the drawing thread
+    private long frames = 0;
+    private long droppedFrames = 0;
+    private long skippedFrames = 0;
+    private long lastFrame = 0;
+    private long tileHits = 0;
+    private long tileMisses = 0;
+
+    private final Paint overlayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint overlayBackground = new Paint();
+    private final String[] overlayLines = new String[7];
+    private long overlayUpdated = 0;
+
+    // guarded by this, only changed on the sensor thread when the idle state changes
+    private boolean idle = false;
+    private long idleCount = 0;
+    private long stateStart;
+    private long stateStartCpu;
+    private long activeTime = 0;
+    private long activeCpu = 0;
+    private long idleTime = 0;
+    private long idleCpu = 0;
+
+    /**
+     * @param refreshRate the refresh rate of the display in frames per second
+     * @param density     the density of the display, used to size the overlay text
+     * @param sensorRate  the rate in Hz the calibration measured the sensors at, or 0 if unknown,
+     *                    to compare the events counted against
+     */
+    public PerfStats(float refreshRate, float density, float sensorRate) {
+        framePeriod = (long) (1e9 / refreshRate);
+        calibratedSensorRate = sensorRate;
+        startGcCount = getGcCount();
+        startBitmapHits = BitmapPool.get().getHits();
+        startBitmapMisses = BitmapPool.get().getMisses();
+        stateStart = System.nanoTime();
+        stateStartCpu = Process.getElapsedCpuTime();
+        overlayPaint.setColor(Color.WHITE);
+        overlayPaint.setTextSize(12 * density);
+        overlayBackground.setColor(Color.argb(160, 0, 0, 0));
+    }
+
+    /**
+     * @return the number of garbage collections so far, or -1 if the runtime doesn't say
+     */
+    private static long getGcCount() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        String count = Debug.getRuntimeStat("art.gc.gc-count");
+        try {
+            return count == null ? -1 : Long.parseLong(count);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long getGcsSinceStart() {
+        long count = getGcCount();
+        return count < 0 || startGcCount < 0 ? -1 : count - startGcCount;
+    }
+
+    /**
+     * Count a sensor event. Must only be called from the sensor thread.
+     */
+    public void onSensorEvent() {
+        sensorEvents = sensorEvents + 1;
+    }
+
+    /**
+     * Close off the time and CPU spent in the current state and start counting the new one
+     *
+     * @param idle whether the sensors just went idle or woke up
+     */
+    public synchronized void onIdleChanged(boolean idle) {
+        if (idle == this.idle) {
+            return;
+        }
+        endState(System.nanoTime(), Process.getElapsedCpuTime());
+        this.idle = idle;
+        if (idle) {
+            idleCount++;
+        }
+    }
+
+    private void endState(long now, long cpu) {
+        if (idle) {
+            idleTime += now - stateStart;
+            idleCpu += cpu - stateStartCpu;
+        } else {
+            activeTime += now - stateStart;
+            activeCpu += cpu - stateStartCpu;
+        }
+        stateStart = now;
+        stateStartCpu = cpu;
+    }
+
+    /**
+     * @return the CPU time in milliseconds the idle time would have used if the sensors had been
+     * at full rate, less what it did use, or 0 if there isn't enough to go on yet
+     */
+    private synchronized long getCpuSaved() {
+        endState(System.nanoTime(), Process.getElapsedCpuTime());
+        if (activeTime == 0 || idleTime == 0) {
+            return 0;
+        }
+        double activeRate = (double) activeCpu / activeTime;
+        return Math.max(Math.round(activeRate * idleTime) - idleCpu, 0);
+    }
+
+    /**
+     * Count a frame, and any frames that were missed since the last one
+     *
+     * @param frameTime the {@link System#nanoTime()} the frame started at
+     */
+    public void onFrame(long frameTime) {
+        if (lastFrame != 0) {
+            long gap = frameTime - lastFrame;
+            if (gap > framePeriod * 3 / 2 && gap < IDLE_GAP) {
+                droppedFrames += Math.round((double) gap / framePeriod) - 1;
+            }
+        }
+        lastFrame = frameTime;
+        frames++;
+    }
+
+    /**
+     * Count a frame that had a new angle but wasn't drawn because the text moved by less than a
+     * pixel. Must be called after {@link #onFrame(long)} for the same frame.
+     */
+    public void onSkippedFrame() {
+        skippedFrames++;
+    }
+
+    /**
+     * Count a tile looked up while drawing a frame, for renderers that cache tiles
+     *
+     * @param hit whether the tile was already in the cache, rather than drawn or copied in
+     */
+    public void onTileLookup(boolean hit) {
+        if (hit) {
+            tileHits++;
+        } else {
+            tileMisses++;
+        }
+    }
+
+    /**
+     * @param nanos the time from the sensor event to the frame that drew it
+     */
+    public void recordSensorToDraw(long nanos) {
+        sensorToDraw.record(nanos);
+    }
+
+    /**
+     * @param nanos the time taken to render a frame, including any data update
+     */
+    public void recordRender(long nanos) {
+        render.record(nanos);
+    }
+
+    /**
+     * @param nanos the time taken to lay out and prepare the text. Must only be called from the
+     *              preparation thread.
+     */
+    public void recordUpdateData(long nanos) {
+        updateData.record(nanos);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private String histogramLine(String name, LatencyHistogram histogram) {
+        return String.format(Locale.US, "%s p50 %.1f p99 %.1f max %.1f ms", name,
+                millis(histogram.getPercentile(0.5)),
+                millis(histogram.getPercentile(0.99)),
+                millis(histogram.getMax()));
+    }
+
+    private void updateOverlay() {
+        long sensorEvents = this.sensorEvents;
+        overlayLines[0] = String.format(Locale.US, "frames %d skipped %d dropped %d", frames, skippedFrames,
+                droppedFrames);
+        overlayLines[1] = String.format(Locale.US, "sensor events %d (%.1f/frame)", sensorEvents,
+                frames == 0 ? 0.0 : (double) sensorEvents / frames);
+        overlayLines[2] = histogramLine("sensor to draw", sensorToDraw);
+        overlayLines[3] = histogramLine("render", render);
+        overlayLines[4] = String.format(Locale.US, "update data last %.1f max %.1f ms",
+                millis(updateData.getLast()), millis(updateData.getMax()));
+        long gcs = getGcsSinceStart();
+        overlayLines[5] = gcs < 0 ? "gc n/a" : "gc " + gcs;
+        long cpuSaved = getCpuSaved();
+        synchronized (this) {
+            overlayLines[6] = String.format(Locale.US, "idle %d times %.1f s, cpu saved %d ms", idleCount,
+                    idleTime / 1e9, cpuSaved);
+        }
+    }
+
+    /**
+     * @return whether the overlay should be drawn again to keep the numbers current
+     */
+    public boolean isOverlayStale() {
+        return overlayLines[0] == null || System.nanoTime() - overlayUpdated > OVERLAY_REFRESH;
+    }
+
+    /**
+     * Draw the numbers in the top left of the bounds. Must be called from the drawing thread.
+     *
+     * @param canvas the canvas to draw on
+     * @param bounds the area the text is drawn in
+     */
+    public void drawOverlay(Canvas canvas, RectF bounds) {
+        long now = System.nanoTime();
+        if (overlayLines[0] == null || now - overlayUpdated > OVERLAY_REFRESH) {
+            updateOverlay();
+            overlayUpdated = now;
+        }
+        float lineHeight = overlayPaint.getTextSize() * 1.2f;
+        float padding = overlayPaint.getTextSize() / 2;
+        float width = 0;
+        for (String line : overlayLines) {
+            width = Math.max(width, overlayPaint.measureText(line));
+        }
+        canvas.drawRect(bounds.left, bounds.top, bounds.left + width + padding * 2,
+                bounds.top + lineHeight * overlayLines.length + padding * 2, overlayBackground);
+        float y = bounds.top + padding;
+        for (String line : overlayLines) {
+            y += lineHeight;
+            canvas.drawText(line, bounds.left + padding, y, overlayPaint);
+        }
+    }
+
+    private void writeHistogram(PrintWriter writer, String name, LatencyHistogram histogram) {
+        writer.printf(Locale.US, "%s.count=%d%n", name, histogram.getCount());
+        writer.printf(Locale.US, "%s.mean=%.3f%n", name, millis(histogram.getMean()));
+        writer.printf(Locale.US, "%s.p50=%.3f%n", name, millis(histogram.getPercentile(0.5)));
+        writer.printf(Locale.US, "%s.p90=%.3f%n", name, millis(histogram.getPercentile(0.9)));
+        writer.printf(Locale.US, "%s.p99=%.3f%n", name, millis(histogram.getPercentile(0.99)));
+        writer.printf(Locale.US, "%s.max=%.3f%n", name, millis(histogram.getMax()));
+    }
+
+    /**
+     * Write all the numbers as key=value lines, with durations in milliseconds
+     */
+    public void write(PrintWriter writer) {
+        writer.printf(Locale.US, "version=%s%n", BuildConfig.VERSION_NAME);
+        writer.printf(Locale.US, "device=%s %s%n", Build.MANUFACTURER, Build.MODEL);
+        writer.printf(Locale.US, "sdk=%d%n", Build.VERSION.SDK_INT);
+        writer.printf(Locale.US, "frames=%d%n", frames);
+        writer.printf(Locale.US, "frames.dropped=%d%n", droppedFrames);
+        writer.printf(Locale.US, "frames.skipped=%d%n", skippedFrames);
+        writer.printf(Locale.US, "frames.drawn=%d%n", render.getCount());
+        writer.printf(Locale.US, "tiles.hits=%d%n", tileHits);
+        writer.printf(Locale.US, "tiles.misses=%d%n", tileMisses);
+        writer.printf(Locale.US, "sensor.events=%d%n", sensorEvents);
+        writer.printf(Locale.US, "sensor.calibrated_rate=%.1f%n", calibratedSensorRate);
+        writer.printf(Locale.US, "gc.count=%d%n", getGcsSinceStart());
+        BitmapPool pool = BitmapPool.get();
+        writer.printf(Locale.US, "bitmaps.reused=%d%n", pool.getHits() - startBitmapHits);
+        writer.printf(Locale.US, "bitmaps.allocated=%d%n", pool.getMisses() - startBitmapMisses);
+        writer.printf(Locale.US, "bitmaps.idle_bytes=%d%n", pool.getBytes());
+        long cpuSaved = getCpuSaved();
+        synchronized (this) {
+            writer.printf(Locale.US, "idle.count=%d%n", idleCount);
+            writer.printf(Locale.US, "idle.time=%.3f%n", millis(idleTime));
+            writer.printf(Locale.US, "idle.cpu=%d%n", idleCpu);
+            writer.printf(Locale.US, "active.time=%.3f%n", millis(activeTime));
+            writer.printf(Locale.US, "active.cpu=%d%n", activeCpu);
+            writer.printf(Locale.US, "cpu.saved=%d%n", cpuSaved);
+        }
+        writeHistogram(writer, "sensor_to_draw", sensorToDraw);
+        writeHistogram(writer, "render", render);
+        writeHistogram(writer, "update_data", updateData);
+    }
+
+    /**
+     * Save the numbers as they are now to a new file in the app's stats directory, to compare
+     * between builds. The file is written on the preparation thread, so this is safe to call from
+     * the main thread.
+     *
+     * @param context the context to find the directory with
+     */
+    public void save(Context context) {
+        StringWriter numbers = new StringWriter();
+        PrintWriter writer = new PrintWriter(numbers);
+        write(writer);
+        writer.close();
+        final String contents = numbers.toString();
+        final Context appContext = context.getApplicationContext();
+        TextScrollRenderer.getPrepareHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                saveFile(appContext, contents);
+            }
+        });
+    }
+
+    private static void saveFile(Context context, String contents) {
+        File directory = context.getExternalFilesDir("stats");
+        if (directory == null) {
+            directory = new File(context.getFilesDir(), "stats");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Unable to create stats directory " + directory);
+            return;
+        }
+        File file = new File(directory, "stats-" + System.currentTimeMillis() + ".txt");
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file);
+            writer.write(contents);
+            Log.i(TAG, "Saved performance stats to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save performance stats", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to save performance stats", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.benoithiller.textwave;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Times each of the {@link RendererRegistry#CANDIDATES} drawing a made up message offscreen, and
+ * measures how fast the sensors deliver, once per version of the app. The fastest renderer is
+ * saved for {@link RendererRegistry#choose(SharedPreferences)}.
+ *
+ * The frames are drawn on a software canvas, which is what the render thread draws on. The
+ * results are only compared with each other, so the difference to a hardware canvas doesn't
+ * matter much. For the same reason it runs at background priority, so it doesn't compete with the
+ * app's own frames. The renderers are created without a {@link StripCache}, so every run times
+ * drawing the tiles rather than reading back a strip saved by an earlier run.
+ *
+ * Hardware layers are left out on purpose. Their cost is in the GPU compositing the layer, which
+ * an offscreen software canvas can't measure, and they only apply to the view based scroller, so
+ * their numbers wouldn't compare with the others.
+ */
+final class RendererCalibration {
+    private static final String TAG = "RendererCalibration";
+
+    private static final String FASTEST = "calibration_renderer";
+    private static final String VERSION = "calibration_version";
+    private static final String SENSOR_RATE = "calibration_sensor_rate";
+
+    private static final String MESSAGE = "The quick brown fox jumps over the lazy dog! 0123456789";
+
+    private static final int WARMUP_FRAMES = 10;
+    private static final int FRAMES = 60;
+
+    /**
+     * How long in milliseconds to count sensor events for
+     */
+    private static final long SENSOR_TIME = 1000;
+
+    private static boolean running = false;
+
+    private RendererCalibration() {
+    }
+
+    /**
+     * @return the name of the renderer the last calibration found fastest
+     */
+    static String getFastest(SharedPreferences preferences) {
+        return preferences.getString(FASTEST, RendererRegistry.DEFAULT);
+    }
+
+    /**
+     * @return the rate in Hz the sensors delivered at during the last calibration, or 0 if unknown
+     */
+    static float getSensorRate(SharedPreferences preferences) {
+        return preferences.getFloat(SENSOR_RATE, 0);
+    }
+
+    /**
+     * Calibrate on a background thread, unless this version of the app already has
+     *
+     * @param bounds   the area the scroller will draw the text in
+     * @param maxWidth the maximum width of the text
+     */
+    static void runIfNeeded(Context context, final RectF bounds, final float maxWidth) {
+        final Context appContext = context.getApplicationContext();
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(appContext);
+        synchronized (RendererCalibration.class) {
+            if (running || preferences.getInt(VERSION, -1) == BuildConfig.VERSION_CODE) {
+                return;
+            }
+            running = true;
+        }
+
+        final HandlerThread thread = new HandlerThread("Calibration", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        final Handler handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                final String fastest = timeRenderers(appContext, bounds, maxWidth);
+
+                // count the events of the sensor the scroller is driven by, at the rate it asks for
+                final SensorManager sensorManager = (SensorManager) appContext.getSystemService(Context.SENSOR_SERVICE);
+                Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
+                final RateCounter counter = new RateCounter();
+                if (sensor != null) {
+                    sensorManager.registerListener(counter, sensor, SensorManager.SENSOR_DELAY_FASTEST, handler);
+                }
+                handler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        sensorManager.unregisterListener(counter);
+                        float rate = counter.getRate();
+                        Log.i(TAG, String.format(Locale.US, "fastest renderer %s, sensors at %.1fHz",
+                                fastest, rate));
+                        preferences.edit()
+                                .putString(FASTEST, fastest)
+                                .putFloat(SENSOR_RATE, rate)
+                                .putInt(VERSION, BuildConfig.VERSION_CODE)
+                                .apply();
+                        synchronized (RendererCalibration.class) {
+                            running = false;
+                        }
+                        thread.quit();
+                    }
+                }, SENSOR_TIME);
+            }
+        });
+    }
+
+    /**
+     * @return the name of the renderer with the lowest mean frame time
+     */
+    private static String timeRenderers(Context context, RectF bounds, float maxWidth) {
+        Bitmap bitmap = Bitmap.createBitmap((int) bounds.right, (int) (bounds.bottom + bounds.top),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        String fastest = RendererRegistry.DEFAULT;
+        long fastestNanos = Long.MAX_VALUE;
+        for (String name : RendererRegistry.CANDIDATES) {
+            long nanos = timeRenderer(RendererRegistry.create(name), canvas, bounds, maxWidth);
+            Log.i(TAG, String.format(Locale.US, "%s %.3fms per frame", name, nanos / 1e6));
+            if (nanos < fastestNanos) {
+                fastest = name;
+                fastestNanos = nanos;
+            }
+        }
+        bitmap.recycle();
+        return fastest;
+    }
+
+    /**
+     * Prepare the message and draw frames across it, the way a wave scrolls through it
+     *
+     * @return the mean time of a frame in nanoseconds
+     */
+    private static long timeRenderer(TextScrollRenderer renderer, Canvas canvas, RectF bounds, float maxWidth) {
+        TextScrollRenderer.Layout layout = new TextScrollRenderer.Layout(MESSAGE, bounds, maxWidth,
+                TextScrollRenderer.FOREGROUND_COLOR, TextScrollRenderer.BACKGROUND_COLOR);
+        TextScrollRenderer.Prepared prepared = renderer.prepare(layout);
+        renderer.swap(prepared);
+        float from = -bounds.width() / 2;
+        float step = prepared.getWidth() / FRAMES;
+
+        long total = 0;
+        for (int i = -WARMUP_FRAMES; i < FRAMES; i++) {
+            long start = System.nanoTime();
+            renderer.renderImpl(canvas, from + Math.max(i, 0) * step);
+            if (i >= 0) {
+                total += System.nanoTime() - start;
+            }
+        }
+
+        renderer.trimCaches(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        prepared.release();
+        return total / FRAMES;
+    }
+
+    private static final class RateCounter implements SensorEventListener {
+        private int count = 0;
+        private long first;
+        private long last;
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            if (count == 0) {
+                first = event.timestamp;
+            }
+            last = event.timestamp;
+            count++;
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+
+        /**
+         * @return the events per second between the first and the last, or 0 if there were none
+         */
+        float getRate() {
+            return last > first ? (float) ((count - 1) * 1e9 / (last - first)) : 0;
+        }
+    }
+}
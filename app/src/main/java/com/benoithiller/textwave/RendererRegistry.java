@@ -0,0 +1,63 @@
+package com.benoithiller.textwave;
+
+import android.content.SharedPreferences;
+
+/**
+ * Lookup of the renderers by the names used in the settings, and the choice between them.
+ */
+final class RendererRegistry {
+    static final String AUTO = "auto";
+    static final String PATH = "path";
+    static final String TILED = "tiled";
+    static final String PAGED = "paged";
+
+    /**
+     * The renderers that show the whole message at once, which the calibration picks between.
+     * There is no hardware layer renderer to include, see {@link RendererCalibration}.
+     */
+    static final String[] CANDIDATES = {PATH, TILED};
+
+    /**
+     * Used until the calibration has picked one
+     */
+    static final String DEFAULT = TILED;
+
+    private RendererRegistry() {
+    }
+
+    /**
+     * @param name the name of the renderer, falls back to the default if unknown
+     * @return a new renderer, without a {@link StripCache} so that guesses and the calibration
+     * never write to disk
+     */
+    static TextScrollRenderer create(String name) {
+        if (name == null) {
+            name = DEFAULT;
+        }
+        switch (name) {
+            case PATH:
+                return new PathTextRenderer();
+            case PAGED:
+                return new PagedTextRenderer();
+            default:
+                return new TiledTextRenderer();
+        }
+    }
+
+    /**
+     * Pick the renderer from the settings. Paging the message needs its own renderer, otherwise
+     * it is the one set by the user or the one the calibration found fastest.
+     *
+     * @return the name of the renderer
+     */
+    static String choose(SharedPreferences preferences) {
+        if (preferences.getBoolean("page_text_preference", false)) {
+            return PAGED;
+        }
+        String name = preferences.getString("renderer_preference", AUTO);
+        if (AUTO.equals(name)) {
+            return RendererCalibration.getFastest(preferences);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,113 @@
+package com.benoithiller.textwave;
+
+import android.content.Context;
+import android.graphics.RectF;
+import android.os.Vibrator;
+import android.util.DisplayMetrics;
+import com.benoithiller.textwave.core.MotionCurve;
+import com.benoithiller.textwave.core.OffsetMapping;
+
+/**
+ * Maps the angle of the device onto the scroll offset of the message and buzzes when the wave
+ * reaches either end of the text. Reaching an end is also passed on to the renderer, which may
+ * use it to page through the message. Shared by the scroller views so they only have to draw.
+ */
+class ScrollMotion {
+    // length of arm in inches
+    private static final float ARM_LENGTH = 16;
+
+    /**
+     * Smallest change of the offset in pixels that is worth drawing a frame for
+     */
+    static final float MIN_OFFSET_CHANGE = 0.5f;
+
+    private final Vibrator vibrator;
+    private TextScrollRenderer renderer;
+    private final OffsetMapping mapping = new OffsetMapping();
+    private boolean vibrate = true;
+    private int edgeCount = 0;
+
+    private double armLength = ARM_LENGTH;
+    private float boundsWidth;
+    private float maxWidth = Float.NaN;
+
+    private int lastEdge = 0;
+
+    public ScrollMotion(Context context) {
+        vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+    }
+
+    /**
+     * @param renderer the renderer drawing the text, which the width of the text comes from
+     */
+    public void setRenderer(TextScrollRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Update the visible area of the message
+     *
+     * @param bounds  the area the text is drawn in
+     * @param metrics metrics of the display the text is drawn on
+     * @return the maximum width of the text for the current arm length
+     */
+    public float layout(RectF bounds, DisplayMetrics metrics) {
+        boundsWidth = bounds.width();
+        maxWidth = OffsetMapping.maxWidth(armLength, metrics.xdpi);
+        return maxWidth;
+    }
+
+    /**
+     * Compute the scroll offset for the angle of the device, vibrating if the angle has moved
+     * past either end of the message.
+     *
+     * @param angle the angle of the device from up
+     * @return the offset of the visible window into the text
+     */
+    public float move(double angle) {
+        if (renderer == null) {
+            // the view only picks its default renderer once it is laid out
+            return 0;
+        }
+        mapping.setDimensions(renderer.getScrollWidth(), boundsWidth, maxWidth);
+        float offset = mapping.map(angle);
+
+        int edge = mapping.getEdge();
+        if (lastEdge != edge && edge != 0) {
+            if (vibrator.hasVibrator() && vibrate) {
+                vibrator.vibrate(20);
+            }
+            renderer.onEdge(edge);
+            edgeCount++;
+        }
+        lastEdge = edge;
+        return offset;
+    }
+
+    /**
+     * @return the number of times the wave has reached an end, which can change what is drawn
+     * without changing the offset
+     */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return whether a frame at the offset would look different to the last one drawn
+     */
+    public boolean shouldDraw(float offset, float drawnOffset, int drawnEdgeCount) {
+        return edgeCount != drawnEdgeCount || !(Math.abs(offset - drawnOffset) < MIN_OFFSET_CHANGE);
+    }
+
+    public void setArmLength(float armLength) {
+        this.armLength = armLength;
+    }
+
+    public void setVibrate(boolean vibrate) {
+        this.vibrate = vibrate;
+    }
+
+    public void setCurve(MotionCurve curve) {
+        mapping.setCurve(curve);
+    }
+}
@@ -0,0 +1,109 @@
+package com.benoithiller.textwave;
+
+import android.graphics.RectF;
+
+/**
+ * Prepares the message the user is most likely to show next while they are still typing it, so
+ * the scroller can draw it from its first frame instead of waiting for the layout.
+ *
+ * Only the latest guess is kept. Making a new guess or cancelling drops the previous one, and a
+ * guess that is still queued or running when that happens is thrown away once it finishes. A
+ * renderer takes the guess when it starts preparing a layout equal to it, with the same kind of
+ * renderer.
+ */
+final class SpeculativePreparer {
+    private static final Object lock = new Object();
+
+    private static Guess wanted;
+
+    private static final class Guess {
+        final Class<?> rendererClass;
+        final TextScrollRenderer.Layout layout;
+        TextScrollRenderer.Prepared prepared;
+
+        Guess(Class<?> rendererClass, TextScrollRenderer.Layout layout) {
+            this.rendererClass = rendererClass;
+            this.layout = layout;
+        }
+
+        boolean matches(Class<?> rendererClass, TextScrollRenderer.Layout layout) {
+            return this.rendererClass == rendererClass && this.layout.equals(layout);
+        }
+    }
+
+    private SpeculativePreparer() {
+    }
+
+    /**
+     * Start preparing a guess at the next message on the preparation thread. Nothing is done if
+     * the same guess is already prepared or on its way.
+     *
+     * @param renderer a renderer of the kind the scroller will use, only used to prepare
+     */
+    static void prepare(final TextScrollRenderer renderer, String text, RectF bounds, float maxWidth,
+                        int foregroundColor, int backgroundColor) {
+        TextScrollRenderer.Layout layout = new TextScrollRenderer.Layout(text, bounds, maxWidth,
+                foregroundColor, backgroundColor);
+        final Guess guess = new Guess(renderer.getClass(), layout);
+        synchronized (lock) {
+            if (wanted != null && wanted.matches(guess.rendererClass, layout)) {
+                return;
+            }
+            cancelLocked();
+            wanted = guess;
+        }
+        TextScrollRenderer.getPrepareHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    if (wanted != guess) {
+                        return;
+                    }
+                }
+                TextScrollRenderer.Prepared prepared = renderer.prepare(guess.layout);
+                synchronized (lock) {
+                    if (wanted == guess) {
+                        guess.prepared = prepared;
+                        return;
+                    }
+                }
+                prepared.release();
+            }
+        });
+    }
+
+    /**
+     * Drop the current guess, because what it was made from has changed
+     */
+    static void cancel() {
+        synchronized (lock) {
+            cancelLocked();
+        }
+    }
+
+    private static void cancelLocked() {
+        if (wanted != null && wanted.prepared != null) {
+            wanted.prepared.release();
+        }
+        wanted = null;
+    }
+
+    /**
+     * Hand over the current guess if it is finished and matches what the renderer wants
+     *
+     * @return the preparation, now owned by the caller and made from the given layout, or null if
+     * there isn't a matching one
+     */
+    static TextScrollRenderer.Prepared take(TextScrollRenderer renderer, TextScrollRenderer.Layout layout) {
+        synchronized (lock) {
+            if (wanted == null || wanted.prepared == null || !wanted.matches(renderer.getClass(), layout)) {
+                return null;
+            }
+            TextScrollRenderer.Prepared prepared = wanted.prepared;
+            wanted = null;
+            // the renderer checks whether a preparation is current by identity
+            prepared.layout = layout;
+            return prepared;
+        }
+    }
+}
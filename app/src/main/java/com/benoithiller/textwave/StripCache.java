@@ -0,0 +1,281 @@
+package com.benoithiller.textwave;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Disk cache of rasterized messages, so showing the same message again doesn't have to draw it
+ * from scratch.
+ *
+ * Each message is a file holding a short header followed by the raw pixels of its tiles one after
+ * the other, in the layout {@link Bitmap#copyPixelsToBuffer} produces. Files are memory mapped
+ * when opened and tiles are copied straight out of the mapping into bitmaps, with nothing to
+ * decode. The least recently shown files are deleted once the directory grows past its cap.
+ *
+ * The header holds the full key and the version of the renderer that drew the file, and any file
+ * that doesn't match what is asked for is deleted rather than used.
+ */
+class StripCache {
+    private static final String TAG = "StripCache";
+
+    private static final int MAGIC = 0x54575354;
+    private static final long MAX_BYTES = 64 * 1024 * 1024;
+
+    private static StripCache instance;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Draws the tiles of a strip that is being written
+     */
+    interface TileSource {
+        /**
+         * @param index the index of the tile
+         * @param tile  the bitmap to draw it into, with undefined contents
+         * @return false to give up on the write, which leaves nothing behind
+         */
+        boolean draw(int index, Bitmap tile);
+    }
+
+    /**
+     * The mapped pixels of a cached message
+     */
+    static class Strip {
+        private final MappedByteBuffer pixels;
+        private final int dataOffset;
+        private final int tileBytes;
+        private final int tileCount;
+
+        private Strip(MappedByteBuffer pixels, int dataOffset, int tileBytes, int tileCount) {
+            this.pixels = pixels;
+            this.dataOffset = dataOffset;
+            this.tileBytes = tileBytes;
+            this.tileCount = tileCount;
+        }
+
+        /**
+         * Copy the pixels of a tile into a bitmap. Only call from one thread at a time.
+         *
+         * @param index the index of the tile
+         * @param tile  a bitmap of the size and config the strip was written with
+         */
+        void copyTile(int index, Bitmap tile) {
+            if (index < 0 || index >= tileCount) {
+                throw new IndexOutOfBoundsException("Tile " + index + " of " + tileCount);
+            }
+            pixels.limit(dataOffset + (index + 1) * tileBytes);
+            pixels.position(dataOffset + index * tileBytes);
+            tile.copyPixelsFromBuffer(pixels);
+        }
+    }
+
+    StripCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache in the app's cache directory
+     */
+    static synchronized StripCache get(Context context) {
+        if (instance == null) {
+            instance = new StripCache(new File(context.getCacheDir(), "strips"), MAX_BYTES);
+        }
+        return instance;
+    }
+
+    private File fileFor(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2 + 4);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16));
+                name.append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(directory, name.append(".raw").toString());
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer header(String key, int version, Bitmap.Config config, int tileWidth,
+                                     int tileHeight, int tileBytes, int tileCount) {
+        byte[] keyBytes;
+        try {
+            keyBytes = key.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer header = ByteBuffer.allocate(8 * 4 + keyBytes.length);
+        header.putInt(MAGIC)
+                .putInt(version)
+                .putInt(config.ordinal())
+                .putInt(tileWidth)
+                .putInt(tileHeight)
+                .putInt(tileBytes)
+                .putInt(tileCount)
+                .putInt(keyBytes.length)
+                .put(keyBytes);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Map a cached message
+     *
+     * @param key     everything the pixels depend on
+     * @param version the version of the renderer, files written by any other version are deleted
+     * @param tile    a bitmap of the size and config the tiles are expected to be
+     * @return the strip, or null if there isn't a valid one
+     */
+    Strip open(String key, int version, Bitmap tile, int tileCount) {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        ByteBuffer expected = header(key, version, tile.getConfig(), tile.getWidth(), tile.getHeight(),
+                tile.getByteCount(), tileCount);
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+            long length = (long) expected.remaining() + (long) tile.getByteCount() * tileCount;
+            if (channel.size() != length) {
+                throw new IOException("Unexpected length " + channel.size());
+            }
+            MappedByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            ByteBuffer header = pixels.duplicate();
+            header.limit(expected.remaining());
+            if (!header.equals(expected)) {
+                throw new IOException("Header doesn't match");
+            }
+            // touched so the eviction sees it as recently used
+            file.setLastModified(System.currentTimeMillis());
+            return new Strip(pixels, expected.remaining(), tile.getByteCount(), tileCount);
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Draw every tile of a message and store them. Slow, so only call it on a background thread.
+     *
+     * @param key     everything the pixels depend on
+     * @param version the version of the renderer
+     * @param tile    a scratch bitmap of the size and config of the tiles
+     * @param source  draws each tile, and can give up on the write part way through
+     */
+    void write(String key, int version, Bitmap tile, int tileCount, TileSource source) {
+        long length = (long) tile.getByteCount() * tileCount;
+        if (length > maxBytes / 2) {
+            // it would push out everything else
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + directory);
+            return;
+        }
+        File file = fileFor(key);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temporary);
+            FileChannel channel = output.getChannel();
+            write(channel, header(key, version, tile.getConfig(), tile.getWidth(), tile.getHeight(),
+                    tile.getByteCount(), tileCount));
+            ByteBuffer pixels = ByteBuffer.allocateDirect(tile.getByteCount());
+            for (int i = 0; i < tileCount; i++) {
+                if (!source.draw(i, tile)) {
+                    close(output);
+                    output = null;
+                    temporary.delete();
+                    return;
+                }
+                pixels.clear();
+                tile.copyPixelsToBuffer(pixels);
+                pixels.flip();
+                write(channel, pixels);
+            }
+            output.close();
+            output = null;
+            // readers never see a partly written file
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Unable to rename " + temporary);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+            temporary.delete();
+            return;
+        } finally {
+            close(output);
+        }
+        trim();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the directory is under its cap
+     */
+    synchronized void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < files.length && total > maxBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close", e);
+            }
+        }
+    }
+}
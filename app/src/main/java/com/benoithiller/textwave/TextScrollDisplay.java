@@ -0,0 +1,58 @@
+package com.benoithiller.textwave;
+
+import com.benoithiller.textwave.core.AngleSlot;
+import com.benoithiller.textwave.core.MotionCurve;
+
+/**
+ * Common interface of the views that can display the scrolling text.
+ */
+interface TextScrollDisplay {
+    /**
+     * Set the strategy used to draw the text, the tiled renderer if this isn't called. The text,
+     * colours and stats aren't carried over from a previous renderer, so it must be called before
+     * those are set. The motion settings are kept.
+     *
+     * @param renderer the new renderer
+     */
+    void setRenderer(TextScrollRenderer renderer);
+
+    void setText(String text);
+
+    void setForegroundColor(int foregroundColor);
+
+    void setBackgroundColor(int backgroundColor);
+
+    void setArmLength(float armLength);
+
+    void setVibrate(boolean vibrate);
+
+    /**
+     * @param curve the shape of the mapping from the angle of the device to the scroll offset
+     */
+    void setCurve(MotionCurve curve);
+
+    /**
+     * Set where the display reads the angle of the device from. The latest angle is read once at
+     * the start of each frame.
+     *
+     * @param angleSlot the slot the sensor thread publishes to
+     */
+    void setAngleSlot(AngleSlot angleSlot);
+
+    /**
+     * @param stats where to record frame timings, or null to not record them
+     */
+    void setPerfStats(PerfStats stats);
+
+    /**
+     * Let the display know a new angle was published. Safe to call from any thread.
+     */
+    void requestFrame();
+
+    /**
+     * Release cached bitmaps when the system is short on memory. Called on the main thread.
+     *
+     * @param level one of the {@link android.content.ComponentCallbacks2} trim levels
+     */
+    void trimMemory(int level);
+}
@@ -0,0 +1,388 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Region;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Base class for the strategies used by the scroller to draw the visible window of the message.
+ *
+ * Laying out the text and building the bitmaps for it is slow for long messages, so it is done
+ * on a shared background thread. Until the first preparation is ready frames only show the
+ * background, and once it is ready it is swapped in at the start of the next frame.
+ */
+abstract class TextScrollRenderer {
+    static final int BACKGROUND_COLOR = Color.WHITE;
+    static final int FOREGROUND_COLOR = Color.BLACK;
+
+    private static Handler prepareHandler;
+
+    protected RectF bounds;
+    protected String text;
+    protected int foregroundColor = FOREGROUND_COLOR;
+    protected int backgroundColor = BACKGROUND_COLOR;
+    /**
+     * The maximum width of the displayable text. Currently this is just set externally as the
+     * length of the arc of 2 * DEGREEWIDTH for an arm of the specified length in the device dpi.
+     *
+     * So a better way of doing this would be to require the renderer to acquire its own info
+     * to determine the maximum width of renderable text. That is assuming this measurement
+     * shouldn't just be pulled up into the spec.
+     */
+    protected float maxWidth = Float.NaN;
+
+    private boolean dataChanged = false;
+    private volatile float scrollWidth = 0;
+    private PerfStats stats;
+
+    private volatile Layout requested;
+    private final AtomicReference<Prepared> ready = new AtomicReference<>();
+    private Prepared current;
+
+    /**
+     * Snapshot of the settings a preparation is made from
+     */
+    static final class Layout {
+        final String text;
+        final RectF bounds;
+        final float maxWidth;
+        final int foregroundColor;
+        final int backgroundColor;
+
+        Layout(String text, RectF bounds, float maxWidth, int foregroundColor, int backgroundColor) {
+            this.text = text;
+            this.bounds = new RectF(bounds);
+            this.maxWidth = maxWidth;
+            this.foregroundColor = foregroundColor;
+            this.backgroundColor = backgroundColor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Layout)) {
+                return false;
+            }
+            Layout other = (Layout) o;
+            return text.equals(other.text)
+                    && bounds.equals(other.bounds)
+                    && Float.compare(maxWidth, other.maxWidth) == 0
+                    && foregroundColor == other.foregroundColor
+                    && backgroundColor == other.backgroundColor;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + bounds.hashCode();
+            result = 31 * result + Float.floatToIntBits(maxWidth);
+            result = 31 * result + foregroundColor;
+            result = 31 * result + backgroundColor;
+            return result;
+        }
+    }
+
+    /**
+     * Everything a renderer builds from a layout before it can draw it
+     */
+    abstract static class Prepared {
+        /**
+         * The layout it was made from. A guess is handed over with the equal layout it was taken
+         * for, so that it can be told apart from older layouts with a plain comparison.
+         */
+        Layout layout;
+
+        protected Prepared(Layout layout) {
+            this.layout = layout;
+        }
+
+        /**
+         * @return the full width of the scaled text
+         */
+        abstract float getWidth();
+
+        /**
+         * Free any bitmaps. Called once the preparation won't be drawn again.
+         */
+        void release() {
+        }
+    }
+
+    /**
+     * @return the handler of the shared preparation thread. Work posted to it from inside
+     * {@link #prepare(Layout)} runs after the preparation has been handed over.
+     */
+    static synchronized Handler getPrepareHandler() {
+        if (prepareHandler == null) {
+            HandlerThread thread = new HandlerThread("TextPrepare", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            prepareHandler = new Handler(thread.getLooper());
+        }
+        return prepareHandler;
+    }
+
+    /**
+     * @return a paint for drawing the message in the given colour
+     */
+    static Paint createTextPaint(int color) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.FILL);
+        paint.setTextSize(100);
+        paint.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
+        paint.setColor(color);
+        return paint;
+    }
+
+    /**
+     * Whether any of the text might be drawn as colour glyphs. Text without them only needs an
+     * {@link android.graphics.Bitmap.Config#ALPHA_8} mask that is tinted when it is drawn.
+     */
+    static boolean hasColorGlyphs(String text) {
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (codePoint >= 0x1F000 || Character.getType(codePoint) == Character.OTHER_SYMBOL) {
+                return true;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return false;
+    }
+
+    /**
+     * Fill everything outside a rectangle with a colour. Renderers draw the text already
+     * composited over the background, so only the area around it still needs clearing.
+     */
+    static void fillAround(Canvas canvas, float left, float top, float right, float bottom, int color) {
+        canvas.save();
+        if (left < right && top < bottom) {
+            canvas.clipRect(left, top, right, bottom, Region.Op.DIFFERENCE);
+        }
+        canvas.drawColor(color);
+        canvas.restore();
+    }
+
+    /**
+     * Lay out the text and build whatever is needed to draw it. Runs on the preparation thread, so
+     * must only use the layout and not any other state of the renderer.
+     */
+    protected abstract Prepared prepare(Layout layout);
+
+    /**
+     * Start drawing a new preparation. Called on the drawing thread before the previous one is
+     * released.
+     *
+     * @param prepared the result of {@link #prepare(Layout)}
+     */
+    protected abstract void swap(Prepared prepared);
+
+    protected abstract void renderImpl(Canvas canvas, float offset);
+
+    /**
+     * Let renderers that can draw at a lower quality trade it for time when frames take too long.
+     * Called before the first frame.
+     *
+     * @param nanos the time in nanoseconds a frame can take to draw
+     */
+    public void setFrameBudget(long nanos) {
+    }
+
+    /**
+     * Called on the drawing thread when the wave reaches either end of the text
+     *
+     * @param edge -1 or 1 for the start or end of the text
+     */
+    public void onEdge(int edge) {
+    }
+
+    /**
+     * Drop whatever can be rebuilt later when the system is short on memory. Must be called on the
+     * drawing thread.
+     *
+     * @param level one of the {@link android.content.ComponentCallbacks2} trim levels
+     */
+    public void trimMemory(int level) {
+        SpeculativePreparer.cancel();
+        BitmapPool.get().clear();
+        trimCaches(level);
+    }
+
+    /**
+     * Release any caches the renderer keeps beyond what the current frame needs. Called on the
+     * drawing thread.
+     *
+     * @param level one of the {@link android.content.ComponentCallbacks2} trim levels
+     */
+    protected void trimCaches(int level) {
+    }
+
+    /**
+     * Change the width reported to the motion, for renderers that don't show the whole message
+     * at once. Called on the drawing thread.
+     */
+    protected void setScrollWidth(float scrollWidth) {
+        this.scrollWidth = scrollWidth;
+    }
+
+    /**
+     * Get the width of the text as of the last frame rendered. This is safe to call from threads
+     * other than the one doing the rendering.
+     *
+     * @return the full width of the text in dpi
+     */
+    public float getScrollWidth() {
+        return scrollWidth;
+    }
+
+    /**
+     * Draw a frame, starting a new preparation first if any of the settings changed
+     *
+     * @param canvas the canvas to draw on
+     * @param offset the offset of the visible window into the text
+     * @return false if the frame was only a placeholder or a preparation is still running, in
+     * which case another frame should be drawn soon
+     */
+    public boolean render(Canvas canvas, float offset) {
+        if (dataChanged) {
+            if (text == null) {
+                throw new IllegalStateException("Attempted to update data before text set.");
+            }
+            if (bounds == null) {
+                throw new IllegalStateException("Attempted to update data before bounds set.");
+            }
+            if (Float.isNaN(maxWidth)) {
+                throw new IllegalStateException("Attempted to update data before bounds max width set.");
+            }
+            dataChanged = false;
+            startPreparing(new Layout(text, bounds, maxWidth, foregroundColor, backgroundColor));
+        }
+
+        Prepared next = ready.getAndSet(null);
+        if (next != null) {
+            swap(next);
+            if (current != null) {
+                current.release();
+            }
+            current = next;
+            scrollWidth = next.getWidth();
+        }
+
+        // a preparation for other bounds would be drawn at the wrong size
+        if (current == null || !current.layout.bounds.equals(bounds)) {
+            canvas.drawColor(backgroundColor);
+            return false;
+        }
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.begin("TextScrollRenderer.renderImpl");
+        }
+        renderImpl(canvas, offset);
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.end();
+            TraceSections.onFrameRendered(offset);
+        }
+        return current.layout == requested;
+    }
+
+    private void startPreparing(final Layout layout) {
+        requested = layout;
+        Prepared guessed = SpeculativePreparer.take(this, layout);
+        if (guessed != null) {
+            // prepared while the message was being typed, so it can be drawn straight away
+            publish(guessed);
+            return;
+        }
+        final PerfStats stats = this.stats;
+        getPrepareHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (layout != requested) {
+                    // already replaced by a newer layout
+                    return;
+                }
+                // a guess that was still being prepared when the frame asked has finished now
+                Prepared prepared = SpeculativePreparer.take(TextScrollRenderer.this, layout);
+                if (prepared == null) {
+                    if (BuildConfig.TRACE_SECTIONS) {
+                        TraceSections.begin("TextScrollRenderer.prepare");
+                    }
+                    long start = System.nanoTime();
+                    prepared = prepare(layout);
+                    if (stats != null) {
+                        stats.recordUpdateData(System.nanoTime() - start);
+                    }
+                    if (BuildConfig.TRACE_SECTIONS) {
+                        TraceSections.end();
+                    }
+                }
+                publish(prepared);
+            }
+        });
+    }
+
+    /**
+     * @return whether a layout is still the latest one asked for. Safe to call from any thread.
+     */
+    protected boolean isRequested(Layout layout) {
+        return layout == requested;
+    }
+
+    private void publish(Prepared prepared) {
+        Prepared skipped = ready.getAndSet(prepared);
+        if (skipped != null) {
+            skipped.release();
+        }
+    }
+
+    /**
+     * @param stats where to record how long preparing takes, or null to not record it
+     */
+    public void setPerfStats(PerfStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * @return where to record what the renderer does on the drawing thread, or null
+     */
+    protected PerfStats getPerfStats() {
+        return stats;
+    }
+
+    public void setBounds(RectF bounds) {
+        this.bounds = bounds;
+        dataChanged = true;
+    }
+
+    public void setMaxWidth(float maxWidth) {
+        this.maxWidth = maxWidth;
+        dataChanged = true;
+    }
+
+    public float getMaxWidth() {
+        return maxWidth;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+        dataChanged = true;
+    }
+
+    public void setForeground(int color) {
+        this.foregroundColor = color;
+        dataChanged = true;
+    }
+
+    public void setBackground(int color) {
+        this.backgroundColor = color;
+        dataChanged = true;
+    }
+
+}
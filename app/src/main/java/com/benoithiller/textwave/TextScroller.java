@@ -2,43 +2,41 @@ package com.benoithiller.textwave;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.Typeface;
-import android.os.Vibrator;
 import android.util.AttributeSet;
-import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
+import com.benoithiller.textwave.core.AngleSlot;
+import com.benoithiller.textwave.core.MotionCurve;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * View for the scrolling text
+ * View for the scrolling text.
+ *
+ * The offset is worked out once per vsync, however many angles were published since the last
+ * one, and the view is only invalidated when it has moved by enough to show.
  */
-public class TextScroller extends View {
-
-    // length of arm in inches
-    private static final float ARM_LENGTH = 16;
-    private static final double MAX_DEGREEWIDTH = Math.PI / 5;
-    private static final int BACKGROUND_COLOR = Color.WHITE;
-    private static final int FOREGROUND_COLOR = Color.BLACK;
-
-    private Vibrator vibrator;
-    private boolean vibrate = true;
+public class TextScroller extends View implements TextScrollDisplay, Choreographer.FrameCallback {
 
     private RectF bounds;
 
     private TextScrollRenderer renderer;
+    private ScrollMotion motion;
 
-    private double armLength = ARM_LENGTH;
-
+    private AngleSlot angleSlot;
+    private final AngleSlot.Reading reading = new AngleSlot.Reading();
     private float offset = 0;
-    private double lastVibrate = 0;
+    private float drawnOffset = Float.NaN;
+    private int drawnEdgeCount = 0;
+    private PerfStats stats;
+
+    private Choreographer choreographer;
+    private final AtomicBoolean framePending = new AtomicBoolean(false);
+    private final Rect dirty = new Rect();
 
     private void init(Context context) {
         setOnClickListener(new OnClickListener() {
@@ -51,8 +49,8 @@ public class TextScroller extends View {
                 }
             }
         });
-        renderer = new PathTextRenderer();
-        vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        motion = new ScrollMotion(context);
+        choreographer = Choreographer.getInstance();
     }
 
     public TextScroller(Context context) {
@@ -67,6 +65,9 @@ public class TextScroller extends View {
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.begin("TextScroller.onSizeChanged");
+        }
         super.onSizeChanged(w, h, oldw, oldh);
         requestLayout();
         float xpad = (float) (getPaddingLeft() + getPaddingRight());
@@ -78,231 +79,126 @@ public class TextScroller extends View {
         bounds = new RectF(0f, 0f, width, height);
         bounds.offsetTo(getPaddingLeft(), getPaddingTop());
 
-        DisplayMetrics metrics = getResources().getDisplayMetrics();
-        renderer.setBounds(bounds);
-        renderer.setMaxWidth((float) (armLength * metrics.xdpi * MAX_DEGREEWIDTH * 2));
+        float maxWidth = motion.layout(bounds, getResources().getDisplayMetrics());
+        getRenderer().setBounds(bounds);
+        getRenderer().setMaxWidth(maxWidth);
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.end();
+        }
+    }
 
+    @Override
+    public void setRenderer(TextScrollRenderer renderer) {
+        this.renderer = renderer;
+        motion.setRenderer(renderer);
     }
 
-    private double sinusoidal(double angle) {
-        double adjustment = 0.4;
-        return Math.sin(Math.PI / 2 * angle * adjustment) / Math.sin(Math.PI / 2 * adjustment);
+    /**
+     * @return the renderer, the tiled one if none was set
+     */
+    private TextScrollRenderer getRenderer() {
+        if (renderer == null) {
+            setRenderer(new TiledTextRenderer());
+        }
+        return renderer;
     }
 
-    public void move(double angle) {
-        double maxAngle = MAX_DEGREEWIDTH * (renderer.getWidth() + bounds.width()) / renderer.getMaxWidth();
-        double maxTextAngle = (maxAngle - (MAX_DEGREEWIDTH * bounds.width() / renderer.getMaxWidth())) / maxAngle;
-        double cappedAngle = Math.max(Math.min(maxAngle, angle), -maxAngle) / maxAngle;
-        double percent = sinusoidal(cappedAngle) / 2 + 0.5;
-        offset = (float) (percent * renderer.getWidth() - bounds.width() / 2);
+    @Override
+    public void setAngleSlot(AngleSlot angleSlot) {
+        this.angleSlot = angleSlot;
+    }
+
+    @Override
+    public void requestFrame() {
+        // every angle published before the next vsync is covered by the one callback
+        if (framePending.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
 
-        if (vibrator.hasVibrator() && vibrate) {
-            double direction = Math.signum(cappedAngle);
-            if (Math.abs(cappedAngle) < maxTextAngle) {
-                direction = 0;
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePending.set(false);
+        if (stats != null) {
+            stats.onFrame(frameTimeNanos);
+        }
+        if (angleSlot != null) {
+            if (angleSlot.read(reading) && stats != null) {
+                stats.recordSensorToDraw(frameTimeNanos - reading.timestamp);
+            }
+            if (reading.hasValue()) {
+                offset = motion.move(reading.predict(frameTimeNanos + AngleSlot.PRESENTATION_DELAY));
             }
-            if (lastVibrate != direction && direction != 0) {
-                vibrator.vibrate(20);
+        }
+        if (bounds == null) {
+            return;
+        }
+        if (!motion.shouldDraw(offset, drawnOffset, drawnEdgeCount)) {
+            if (stats != null) {
+                stats.onSkippedFrame();
             }
-            lastVibrate = direction;
+            return;
         }
-        invalidate();
+        // the padding is always the background, only the text can change
+        bounds.roundOut(dirty);
+        invalidate(dirty);
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        renderer.render(canvas, offset);
+        long start = System.nanoTime();
+        drawnOffset = offset;
+        drawnEdgeCount = motion.getEdgeCount();
+        if (!getRenderer().render(canvas, offset)) {
+            // still preparing, so keep drawing until the text is ready
+            postInvalidateOnAnimation();
+        }
+        if (stats != null) {
+            stats.recordRender(System.nanoTime() - start);
+            stats.drawOverlay(canvas, bounds);
+        }
+    }
+
+    @Override
+    public void setPerfStats(PerfStats stats) {
+        this.stats = stats;
+        getRenderer().setPerfStats(stats);
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        getRenderer().trimMemory(level);
     }
 
     @Override
     public void setBackgroundColor(int backgroundColor) {
-        renderer.setBackground(backgroundColor);
+        getRenderer().setBackground(backgroundColor);
     }
 
+    @Override
     public void setArmLength(float armLength) {
-        this.armLength = armLength;
+        motion.setArmLength(armLength);
     }
 
+    @Override
     public void setText(String text) {
-        renderer.setText(text);
+        getRenderer().setText(text);
     }
 
+    @Override
     public void setForegroundColor(int foregroundColor) {
-        renderer.setForeground(foregroundColor);
+        getRenderer().setForeground(foregroundColor);
     }
 
+    @Override
     public void setVibrate(boolean vibrate) {
-        this.vibrate = vibrate;
+        motion.setVibrate(vibrate);
     }
 
-    private abstract class TextScrollRenderer {
-        protected RectF bounds;
-        protected String text;
-        protected int foregroundColor = FOREGROUND_COLOR;
-        protected int backgroundColor = BACKGROUND_COLOR;
-        /**
-         * The maximum width of the displayable text. Currently this is just set externally as the
-         * length of the arc of 2 * DEGREEWIDTH for an arm of the specified length in the device dpi.
-         *
-         * So a better way of doing this would be to require the renderer to acquire its own info
-         * to determine the maximum width of renderable text. That is assuming this measurement
-         * shouldn't just be pulled up into the spec.
-         */
-        protected float maxWidth = Float.NaN;
-
-        private boolean dataChanged = false;
-
-        protected abstract void renderImpl(Canvas canvas, float offset);
-
-        /**
-         * Get the full width of the scrollable text
-         *
-         * @return the full width of the text in dpi
-         */
-        public abstract float getWidth();
-
-        protected abstract void updateData();
-
-        public void render(Canvas canvas, float offset) {
-            if (dataChanged) {
-                if (text == null) {
-                    throw new IllegalStateException("Attempted to update data before text set.");
-                }
-                if (bounds == null) {
-                    throw new IllegalStateException("Attempted to update data before bounds set.");
-                }
-                if (Float.isNaN(maxWidth)) {
-                    throw new IllegalStateException("Attempted to update data before bounds max width set.");
-                }
-                dataChanged = false;
-                updateData();
-            }
-            renderImpl(canvas, offset);
-        }
-
-        public void setBounds(RectF bounds) {
-            this.bounds = bounds;
-            dataChanged = true;
-        }
-
-        public void setMaxWidth(float maxWidth) {
-            this.maxWidth = maxWidth;
-            dataChanged = true;
-        }
-
-        public float getMaxWidth() {
-            return maxWidth;
-        }
-
-        public void setText(String text) {
-            this.text = text;
-            dataChanged = true;
-        }
-
-        public void setForeground(int color) {
-            this.foregroundColor = color;
-            dataChanged = true;
-        }
-
-        public void setBackground(int color) {
-            this.backgroundColor = color;
-            dataChanged = true;
-        }
-
-    }
-
-    private class PathTextRenderer extends TextScrollRenderer {
-
-        private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        private final Paint emojiPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        private final Path textPath = new Path();
-        private final RectF pathBounds = new RectF();
-        private final Rect textBounds = new Rect();
-        private final Rect scaledBounds = new Rect();
-
-        private Bitmap bitmap;
-        private Canvas bitmapCanvas;
-        private Bitmap emojiBitmap;
-        private Canvas emojiCanvas;
-        private float scaleChange;
-
-        public PathTextRenderer() {
-            textPaint.setStyle(Paint.Style.FILL);
-            textPaint.setTextSize(100);
-            textPaint.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
-            textPaint.setColor(foregroundColor);
-
-            emojiPaint.setStyle(Paint.Style.FILL);
-            emojiPaint.setTextSize(100);
-            emojiPaint.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
-            emojiPaint.setColor(backgroundColor);
-        }
-
-        @Override
-        public void renderImpl(Canvas canvas, float offset) {
-            bitmap.eraseColor(Color.TRANSPARENT);
-            bitmapCanvas.save();
-            bitmapCanvas.translate(-pathBounds.left - offset, -pathBounds.top + (bounds.height() - pathBounds.height()) / 2);
-            bitmapCanvas.drawPath(textPath, textPaint);
-            bitmapCanvas.restore();
-
-            emojiBitmap.eraseColor(Color.TRANSPARENT);
-            emojiCanvas.save();
-            emojiCanvas.translate(-textBounds.left - offset / scaleChange, -textBounds.top + (scaledBounds.height() - textBounds.height()) / 2);
-            emojiCanvas.drawText(text, 0, 0, emojiPaint);
-            emojiCanvas.restore();
-
-            canvas.drawColor(backgroundColor);
-            canvas.drawBitmap(emojiBitmap, null, bounds, emojiPaint);
-            canvas.drawBitmap(bitmap, null, bounds, textPaint);
-        }
-
-        @Override
-        public float getWidth() {
-            return pathBounds.width();
-        }
-
-        @Override
-        public void updateData() {
-            textPaint.setColor(foregroundColor);
-            emojiPaint.setColor(backgroundColor);
-            textPaint.getTextPath(text, 0, text.length(), 0, 0, textPath);
-            textPaint.getTextBounds(text, 0, text.length(), textBounds);
-
-            pathBounds.set(textBounds);
-
-            scaleChange = bounds.height() / pathBounds.height();
-
-            float width = Math.min(pathBounds.width() * scaleChange, maxWidth);
-            scaleChange = width / pathBounds.width();
-
-            Matrix transformMatrix = new Matrix();
-            transformMatrix.setScale(scaleChange, scaleChange);
-
-            textPath.transform(transformMatrix);
-            transformMatrix.mapRect(pathBounds);
-
-            transformMatrix.setScale(1 / scaleChange, 1 / scaleChange);
-            RectF tempRect = new RectF(bounds);
-            transformMatrix.mapRect(tempRect);
-            tempRect.round(scaledBounds);
-
-            emojiBitmap = Bitmap.createBitmap(scaledBounds.width(), scaledBounds.height(), Bitmap.Config.ARGB_8888);
-            emojiCanvas = new Canvas(emojiBitmap);
-            emojiCanvas.save();
-            emojiCanvas.translate(-textBounds.left, -textBounds.top);
-            emojiCanvas.drawText(text, 0, 0, emojiPaint);
-            emojiCanvas.restore();
-
-            bitmap = Bitmap.createBitmap((int) bounds.width(), (int) bounds.height(), Bitmap.Config.ARGB_8888);
-            bitmapCanvas = new Canvas(bitmap);
-            bitmapCanvas.save();
-            bitmapCanvas.translate(-pathBounds.left, -pathBounds.top);
-            bitmapCanvas.drawPath(textPath, textPaint);
-            bitmapCanvas.restore();
-
-        }
+    @Override
+    public void setCurve(MotionCurve curve) {
+        motion.setCurve(curve);
     }
 }
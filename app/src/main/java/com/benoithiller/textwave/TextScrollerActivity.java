@@ -1,6 +1,7 @@
 package com.benoithiller.textwave;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
@@ -11,8 +12,27 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
+import com.benoithiller.textwave.core.AngleSlot;
+import com.benoithiller.textwave.core.GravityEstimator;
+import com.benoithiller.textwave.core.GyroFusionEstimator;
+import com.benoithiller.textwave.core.IdleDetector;
+import com.benoithiller.textwave.core.MotionCurves;
+import com.benoithiller.textwave.core.MotionEstimator;
+import com.benoithiller.textwave.core.SensorClock;
+import com.benoithiller.textwave.core.SensorFilters;
+import com.benoithiller.textwave.core.SensorTrace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Activity that shows the text scroller
@@ -22,22 +42,68 @@ public class TextScrollerActivity extends Activity implements SensorEventListene
     public static final String DARK_MODE = "com.benoithiller.textwave.DARK_MODE";
     public static final String ARM_LENGTH = "com.benoithiller.textwave.ARM_LENGTH";
     public static final String VIBRATE = "com.benoithiller.textwave.VIBRATE";
+    public static final String RENDER_THREAD = "com.benoithiller.textwave.RENDER_THREAD";
+    public static final String FILTER = "com.benoithiller.textwave.FILTER";
+    public static final String FAST_MATH = "com.benoithiller.textwave.FAST_MATH";
+    public static final String CURVE = "com.benoithiller.textwave.CURVE";
+    public static final String RECORD_TRACE = "com.benoithiller.textwave.RECORD_TRACE";
+    public static final String PERF_STATS = "com.benoithiller.textwave.PERF_STATS";
+    public static final String RENDERER = "com.benoithiller.textwave.RENDERER";
+
+    /**
+     * Padding above and below the text in pixels
+     */
+    static final int VERTICAL_PADDING = 30;
+
+    private static final String TAG = "TextScrollerActivity";
+
+    /**
+     * Sampling period in microseconds of the sensors while the device is held still
+     */
+    private static final int IDLE_PERIOD = 100000;
+
+    /**
+     * How long in microseconds idle gravity readings can be batched up before being delivered. The
+     * sensor that wakes the device up is never batched, so waking takes at most one period.
+     */
+    private static final int IDLE_REPORT_LATENCY = 200000;
 
     private SensorManager sensorManager;
     private Sensor gravity;
-    private float[] gravityValues;
-    private TextScroller scroller;
-
-    private Vector2 up;
+    private Sensor gyroscope;
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+    private MotionEstimator estimator;
+    private final SensorClock sensorClock = new SensorClock();
+    private boolean portrait;
+    private boolean recordTrace;
+    /**
+     * Set on the main thread, written to and cleared on the sensor thread
+     */
+    private final AtomicReference<SensorTrace.Writer> traceWriter = new AtomicReference<>();
+    private final AngleSlot angleSlot = new AngleSlot();
+    private final IdleDetector idleDetector = new IdleDetector();
+    /**
+     * Guards the sensor registrations, which change on the sensor thread as well as in the
+     * lifecycle callbacks
+     */
+    private final Object sensorLock = new Object();
+    private boolean resumed = false;
+    private TextScrollDisplay scroller;
+    private PerfStats stats;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.begin("TextScrollerActivity.onCreate");
+        }
         super.onCreate(savedInstanceState);
 
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
         sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
         gravity = sensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
+        gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
 
         Intent intent = getIntent();
         String scrollText = intent.getStringExtra(SCROLL_STRING);
@@ -48,18 +114,50 @@ public class TextScrollerActivity extends Activity implements SensorEventListene
 
         int armLength = intent.getIntExtra(ARM_LENGTH, R.integer.default_arm_length);
 
-        scroller = new TextScroller(this);
+        boolean renderThread = intent.getBooleanExtra(RENDER_THREAD, true);
+
+        String filter = intent.getStringExtra(FILTER);
+
+        boolean fastMath = intent.getBooleanExtra(FAST_MATH, false);
+
+        String curve = intent.getStringExtra(CURVE);
+
+        recordTrace = intent.getBooleanExtra(RECORD_TRACE, false);
+
+        if (intent.getBooleanExtra(PERF_STATS, false)) {
+            stats = new PerfStats(getWindowManager().getDefaultDisplay().getRefreshRate(),
+                    getResources().getDisplayMetrics().density,
+                    RendererCalibration.getSensorRate(PreferenceManager.getDefaultSharedPreferences(this)));
+        }
+
+        View scrollerView;
+        if (renderThread) {
+            scrollerView = new TextScrollerSurface(this);
+        } else {
+            scrollerView = new TextScroller(this);
+        }
+        scroller = (TextScrollDisplay) scrollerView;
+        TextScrollRenderer renderer = RendererRegistry.create(intent.getStringExtra(RENDERER));
+        if (renderer instanceof TiledTextRenderer) {
+            // only the message really shown is worth keeping on disk
+            ((TiledTextRenderer) renderer).setStripCache(StripCache.get(this));
+        }
+        renderer.setFrameBudget((long) (1e9 / getWindowManager().getDefaultDisplay().getRefreshRate()));
+        scroller.setRenderer(renderer);
         scroller.setText(scrollText);
         if (darkMode) {
             scroller.setForegroundColor(Color.WHITE);
             scroller.setBackgroundColor(Color.BLACK);
         }
-        scroller.setPadding(0, 30, 0, 30);
+        scrollerView.setPadding(0, VERTICAL_PADDING, 0, VERTICAL_PADDING);
         scroller.setArmLength(armLength);
         scroller.setVibrate(vibrate);
+        scroller.setCurve(MotionCurves.create(curve));
+        scroller.setAngleSlot(angleSlot);
+        scroller.setPerfStats(stats);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            scroller.setSystemUiVisibility(
+            scrollerView.setSystemUiVisibility(
                     View.SYSTEM_UI_FLAG_LAYOUT_STABLE
                             | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
                             | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
@@ -67,45 +165,159 @@ public class TextScrollerActivity extends Activity implements SensorEventListene
                             | View.SYSTEM_UI_FLAG_FULLSCREEN
                             | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY);
         }
-        setContentView(scroller);
-    }
-
-    private void moveMessage(double position) {
-        scroller.move(position);
-    }
+        setContentView(scrollerView);
 
-    private Vector2 getUp(int orientation) {
-        if (orientation == Configuration.ORIENTATION_PORTRAIT) {
-            return Vector2.j.mult(Math.signum(gravityValues[1]));
+        portrait = getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT;
+        if (gyroscope != null) {
+            estimator = new GyroFusionEstimator(portrait, SensorFilters.create(filter), fastMath);
         } else {
-            return Vector2.i.mult(Math.signum(gravityValues[0]));
+            estimator = new GravityEstimator(portrait, SensorFilters.create(filter), fastMath);
+        }
+
+        // keep the flood of sensor events off the main thread, only the latest angle gets drawn
+        sensorThread = new HandlerThread("SensorThread", Process.THREAD_PRIORITY_DISPLAY);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.end();
         }
     }
 
     @Override
     protected void onResume() {
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.begin("TextScrollerActivity.onResume");
+        }
         super.onResume();
-        sensorManager.registerListener(this, gravity, SensorManager.SENSOR_DELAY_FASTEST);
+        if (recordTrace) {
+            startTrace();
+        }
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                idleDetector.reset();
+                if (stats != null) {
+                    stats.onIdleChanged(false);
+                }
+            }
+        });
+        synchronized (sensorLock) {
+            resumed = true;
+            registerSensors(false);
+        }
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.end();
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        sensorManager.unregisterListener(this);
+        synchronized (sensorLock) {
+            resumed = false;
+            sensorManager.unregisterListener(this);
+        }
+        if (traceWriter.get() != null) {
+            stopTrace();
+        }
+        if (stats != null) {
+            stats.save(this);
+        }
         getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        sensorThread.quit();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        scroller.trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        scroller.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Register for the sensors at full rate, or at a slow batched rate while the device is still
+     */
+    private void registerSensors(boolean idle) {
+        // with a gyroscope to wake up on, gravity readings can wait to be delivered together
+        registerSensor(gravity, idle, gyroscope != null);
+        if (gyroscope != null) {
+            registerSensor(gyroscope, idle, false);
+        }
+    }
+
+    private void registerSensor(Sensor sensor, boolean idle, boolean batch) {
+        if (!idle) {
+            sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, sensorHandler);
+        } else if (batch && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            sensorManager.registerListener(this, sensor, IDLE_PERIOD, IDLE_REPORT_LATENCY, sensorHandler);
+        } else {
+            sensorManager.registerListener(this, sensor, IDLE_PERIOD, sensorHandler);
+        }
+    }
+
+    /**
+     * Switch the sensor rate after the device went idle or woke up. Called on the sensor thread.
+     */
+    private void onIdleChanged(boolean idle) {
+        if (stats != null) {
+            stats.onIdleChanged(idle);
+        }
+        synchronized (sensorLock) {
+            if (!resumed) {
+                return;
+            }
+            sensorManager.unregisterListener(this);
+            registerSensors(idle);
+        }
+    }
+
     @Override
     public void onSensorChanged(SensorEvent event) {
-        gravityValues = lowPass(event.values.clone(), gravityValues);
-        if (up == null) {
-            up = getUp(getResources().getConfiguration().orientation);
-        }
-        Vector3 vector = new Vector3(gravityValues[0], gravityValues[1], gravityValues[2]);
-        Vector2 vectorXY = vector.flatten();
-        double angle = vectorXY.angle(up);
-        moveMessage(angle);
+        long receivedAt = System.nanoTime();
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.begin("onSensorChanged");
+            TraceSections.onSensorEvent(receivedAt);
+        }
+        if (stats != null) {
+            stats.onSensorEvent();
+        }
+        boolean gyro = event.sensor.getType() == Sensor.TYPE_GYROSCOPE;
+        SensorTrace.Writer writer = traceWriter.get();
+        if (writer != null) {
+            writeTrace(writer, gyro ? SensorTrace.GYROSCOPE : SensorTrace.GRAVITY, event);
+        }
+        boolean changed;
+        boolean idleChanged;
+        if (gyro) {
+            changed = estimator.onGyroscope(event.values, event.timestamp);
+            idleChanged = idleDetector.onGyroscope(event.values, event.timestamp);
+        } else {
+            changed = estimator.onGravity(event.values, event.timestamp);
+            idleChanged = idleDetector.onGravity(event.values, event.timestamp);
+        }
+        if (idleChanged) {
+            onIdleChanged(idleDetector.isIdle());
+        }
+        // while idle the frame would only show sensor noise, so the displays stop drawing
+        if (changed && !idleDetector.isIdle()) {
+            long timestamp = sensorClock.toNanoTime(estimator.getTimestamp(), receivedAt);
+            angleSlot.publish(estimator.getAngle(), estimator.getAngularVelocity(), timestamp);
+            scroller.requestFrame();
+        }
+        if (BuildConfig.TRACE_SECTIONS) {
+            TraceSections.end();
+        }
     }
 
     @Override
@@ -113,14 +325,56 @@ public class TextScrollerActivity extends Activity implements SensorEventListene
 
     }
 
-    private static float[] lowPass(float[] input, float[] output) {
-        float alpha = 0.7f;
-        if (output == null) return input;
+    private void startTrace() {
+        File directory = getExternalFilesDir("traces");
+        if (directory == null) {
+            directory = new File(getFilesDir(), "traces");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Unable to create trace directory " + directory);
+            return;
+        }
+        File file = new File(directory, "trace-" + System.currentTimeMillis() + ".twt");
+        try {
+            traceWriter.set(new SensorTrace.Writer(new FileOutputStream(file)));
+            Log.i(TAG, "Recording sensor trace to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start sensor trace", e);
+        }
+    }
+
+    /**
+     * Close the trace on the sensor thread, after any events already queued there. A trace
+     * started again before then is left recording.
+     */
+    private void stopTrace() {
+        final SensorTrace.Writer writer = traceWriter.get();
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                traceWriter.compareAndSet(writer, null);
+                closeTrace(writer);
+            }
+        });
+    }
+
+    private void writeTrace(SensorTrace.Writer writer, int sensor, SensorEvent event) {
+        try {
+            writer.write(sensor, event.timestamp, event.values, portrait);
+        } catch (IOException e) {
+            Log.e(TAG, "Stopped recording sensor trace", e);
+            if (traceWriter.compareAndSet(writer, null)) {
+                closeTrace(writer);
+            }
+        }
+    }
 
-        for (int i = 0; i < input.length; i++) {
-            output[i] = output[i] + alpha * (input[i] - output[i]);
+    private static void closeTrace(SensorTrace.Writer writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to finish sensor trace", e);
         }
-        return output;
     }
 
 }
@@ -0,0 +1,323 @@
+package com.benoithiller.textwave;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+import com.benoithiller.textwave.core.AngleSlot;
+import com.benoithiller.textwave.core.MotionCurve;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Surface for the scrolling text that draws on its own thread, paced by the display's vsync.
+ *
+ * The sensor side only publishes the newest angle, which the render thread picks up at the start
+ * of each frame. All renderer and motion calls after the thread starts are made on the render
+ * thread.
+ */
+public class TextScrollerSurface extends SurfaceView implements TextScrollDisplay, SurfaceHolder.Callback {
+    private static final String TAG = "TextScrollerSurface";
+
+    private TextScrollRenderer renderer;
+    private ScrollMotion motion;
+
+    private volatile AngleSlot angleSlot;
+    private PerfStats stats;
+    private RectF bounds;
+
+    private HandlerThread renderThread;
+    private Handler renderHandler;
+    private RenderLoop renderLoop;
+
+    private void init(Context context) {
+        setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                try {
+                    ((Activity) getContext()).finish();
+                } catch (Throwable throwable) {
+                    Log.e("finalizer", "Failed to close activity", throwable);
+                }
+            }
+        });
+        motion = new ScrollMotion(context);
+        getHolder().addCallback(this);
+    }
+
+    public TextScrollerSurface(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public TextScrollerSurface(Context context, AttributeSet attributes) {
+        super(context, attributes);
+        init(context);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        renderThread = new HandlerThread("TextScrollerRender", Process.THREAD_PRIORITY_DISPLAY);
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+        renderLoop = new RenderLoop(holder);
+        renderHandler.post(renderLoop);
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+        float xpad = (float) (getPaddingLeft() + getPaddingRight());
+        float ypad = (float) (getPaddingTop() + getPaddingBottom());
+
+        final RectF bounds = new RectF(0f, 0f, (float) w - xpad, (float) h - ypad);
+        bounds.offsetTo(getPaddingLeft(), getPaddingTop());
+
+        final DisplayMetrics metrics = getResources().getDisplayMetrics();
+        final RenderLoop loop = renderLoop;
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (BuildConfig.TRACE_SECTIONS) {
+                    TraceSections.begin("TextScrollerSurface.surfaceChanged");
+                }
+                float maxWidth = motion.layout(bounds, metrics);
+                TextScrollerSurface.this.bounds = bounds;
+                getRenderer().setBounds(bounds);
+                getRenderer().setMaxWidth(maxWidth);
+                loop.invalidate();
+                if (BuildConfig.TRACE_SECTIONS) {
+                    TraceSections.end();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        final RenderLoop loop = renderLoop;
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loop.stop();
+                Looper.myLooper().quit();
+            }
+        });
+        try {
+            // the surface can't be drawn to once this returns, so wait for the last frame
+            renderThread.join();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted waiting for render thread", e);
+            Thread.currentThread().interrupt();
+        }
+        renderThread = null;
+        renderHandler = null;
+        renderLoop = null;
+    }
+
+    @Override
+    public void setRenderer(TextScrollRenderer renderer) {
+        this.renderer = renderer;
+        motion.setRenderer(renderer);
+    }
+
+    /**
+     * @return the renderer, the tiled one if none was set
+     */
+    private TextScrollRenderer getRenderer() {
+        if (renderer == null) {
+            setRenderer(new TiledTextRenderer());
+        }
+        return renderer;
+    }
+
+    @Override
+    public void setAngleSlot(AngleSlot angleSlot) {
+        this.angleSlot = angleSlot;
+    }
+
+    @Override
+    public void setPerfStats(PerfStats stats) {
+        this.stats = stats;
+        getRenderer().setPerfStats(stats);
+    }
+
+    @Override
+    public void requestFrame() {
+        // the render loop polls the angle slot on every vsync, it only needs waking once it has
+        // stopped because nothing was changing
+        Handler handler = renderHandler;
+        RenderLoop loop = renderLoop;
+        if (handler != null && loop != null && loop.parked.compareAndSet(true, false)) {
+            handler.post(loop.resume);
+        }
+    }
+
+    @Override
+    public void trimMemory(final int level) {
+        Handler handler = renderHandler;
+        if (handler == null) {
+            // without a surface there is no render thread to race with
+            getRenderer().trimMemory(level);
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                getRenderer().trimMemory(level);
+            }
+        });
+    }
+
+    @Override
+    public void setBackgroundColor(int backgroundColor) {
+        getRenderer().setBackground(backgroundColor);
+    }
+
+    @Override
+    public void setArmLength(float armLength) {
+        motion.setArmLength(armLength);
+    }
+
+    @Override
+    public void setText(String text) {
+        getRenderer().setText(text);
+    }
+
+    @Override
+    public void setForegroundColor(int foregroundColor) {
+        getRenderer().setForeground(foregroundColor);
+    }
+
+    @Override
+    public void setVibrate(boolean vibrate) {
+        motion.setVibrate(vibrate);
+    }
+
+    @Override
+    public void setCurve(MotionCurve curve) {
+        motion.setCurve(curve);
+    }
+
+    /**
+     * Frame loop run on the render thread. Redraws whenever the offset or the layout has changed
+     * since the last frame.
+     */
+    private class RenderLoop implements Runnable, Choreographer.FrameCallback {
+        private final SurfaceHolder holder;
+        private final AngleSlot.Reading reading = new AngleSlot.Reading();
+        private Choreographer choreographer;
+        private boolean running = false;
+        private boolean laidOut = false;
+        private boolean dirty = false;
+        private float offset = 0;
+        private float drawnOffset = Float.NaN;
+        private int drawnEdgeCount = 0;
+
+        /**
+         * Set once no more frame callbacks are coming until {@link #requestFrame()} is called
+         */
+        private final AtomicBoolean parked = new AtomicBoolean(false);
+        private final Runnable resume = new Runnable() {
+            @Override
+            public void run() {
+                if (running) {
+                    choreographer.postFrameCallback(RenderLoop.this);
+                }
+            }
+        };
+
+        private RenderLoop(SurfaceHolder holder) {
+            this.holder = holder;
+        }
+
+        @Override
+        public void run() {
+            choreographer = Choreographer.getInstance();
+            running = true;
+            choreographer.postFrameCallback(this);
+        }
+
+        private void invalidate() {
+            laidOut = true;
+            dirty = true;
+            if (parked.compareAndSet(true, false)) {
+                choreographer.postFrameCallback(this);
+            }
+        }
+
+        private void stop() {
+            running = false;
+            choreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!running) {
+                return;
+            }
+            if (stats != null) {
+                stats.onFrame(frameTimeNanos);
+            }
+            AngleSlot slot = angleSlot;
+            boolean fresh = false;
+            if (slot != null) {
+                fresh = slot.read(reading);
+                if (fresh && stats != null) {
+                    stats.recordSensorToDraw(frameTimeNanos - reading.timestamp);
+                }
+                if (reading.hasValue()) {
+                    offset = motion.move(reading.predict(frameTimeNanos + AngleSlot.PRESENTATION_DELAY));
+                }
+            }
+            boolean changed = motion.shouldDraw(offset, drawnOffset, drawnEdgeCount);
+            // with the overlay showing frames are also drawn when the numbers are due a refresh
+            if (laidOut && (dirty || changed || (stats != null && stats.isOverlayStale()))) {
+                Canvas canvas = holder.lockCanvas();
+                if (canvas != null) {
+                    boolean complete = false;
+                    try {
+                        long start = System.nanoTime();
+                        // keep drawing until the text is ready
+                        complete = getRenderer().render(canvas, offset);
+                        if (stats != null) {
+                            stats.recordRender(System.nanoTime() - start);
+                            stats.drawOverlay(canvas, bounds);
+                        }
+                    } finally {
+                        holder.unlockCanvasAndPost(canvas);
+                    }
+                    drawnOffset = offset;
+                    drawnEdgeCount = motion.getEdgeCount();
+                    dirty = !complete;
+                    changed = false;
+                }
+            } else if (fresh && stats != null) {
+                stats.onSkippedFrame();
+            }
+            // once the prediction has run out and no angles are coming in, as when the sensors
+            // are idle, the frames would all be the same so stop asking for them
+            if (!fresh && !dirty && !changed && stats == null) {
+                parked.set(true);
+                if (slot == null || !slot.read(reading)) {
+                    return;
+                }
+                // published before parking was visible, so requestFrame didn't wake the loop
+                if (!parked.compareAndSet(true, false)) {
+                    return;
+                }
+            }
+            choreographer.postFrameCallback(this);
+        }
+    }
+}
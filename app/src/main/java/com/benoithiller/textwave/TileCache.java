@@ -0,0 +1,102 @@
+package com.benoithiller.textwave;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The most recently drawn tiles of a message, for the renderers that cut the text into fixed
+ * width tiles. Only a few screens worth are kept so that a full sweep of a long message doesn't
+ * hold the whole strip in memory.
+ *
+ * Evicted tiles are kept as spares for the next tile that has to be drawn, and everything goes
+ * back to the {@link BitmapPool} when the cache is cleared. Only used on the drawing thread.
+ */
+class TileCache {
+    static final int TILE_WIDTH = 256;
+
+    /**
+     * Number of screen widths worth of tiles kept around. A sweep covers the message from one end
+     * to the other, so anything beyond a couple of screens gets evicted on every pass anyway.
+     */
+    private static final int CACHED_SCREENS = 3;
+
+    private final LinkedHashMap<Long, Bitmap> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<Bitmap> spare = new ArrayList<>();
+
+    private int maxTiles;
+    private int tileHeight;
+    private Bitmap.Config config;
+
+    /**
+     * Drop every tile and start caching the tiles of a new layout
+     *
+     * @param bounds the area the text is drawn in, which the tiles are as tall as
+     * @param mask   whether the tiles are {@link Bitmap.Config#ALPHA_8} masks of the outlines
+     */
+    void reset(RectF bounds, boolean mask) {
+        clear();
+        maxTiles = ((int) Math.ceil(bounds.width() / TILE_WIDTH) + 1) * CACHED_SCREENS;
+        tileHeight = (int) bounds.height();
+        config = mask ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * @return the cached tile, now the most recently used, or null if it isn't cached
+     */
+    Bitmap get(long key) {
+        return tiles.get(key);
+    }
+
+    boolean contains(long key) {
+        return tiles.containsKey(key);
+    }
+
+    /**
+     * Add a tile, evicting the least recently used ones if the cache is full
+     */
+    void put(long key, Bitmap tile) {
+        while (tiles.size() >= maxTiles) {
+            Iterator<Bitmap> eldest = tiles.values().iterator();
+            spare.add(eldest.next());
+            eldest.remove();
+        }
+        tiles.put(key, tile);
+    }
+
+    /**
+     * @return a bitmap to draw a new tile into, with undefined contents
+     */
+    Bitmap obtain() {
+        if (!spare.isEmpty()) {
+            return spare.remove(spare.size() - 1);
+        }
+        return BitmapPool.get().obtain(TILE_WIDTH, tileHeight, config);
+    }
+
+    /**
+     * Take back a bitmap from {@link #obtain()} that didn't end up in the cache
+     */
+    void recycle(Bitmap tile) {
+        spare.add(tile);
+    }
+
+    /**
+     * Give every tile back to the pool
+     */
+    void clear() {
+        BitmapPool pool = BitmapPool.get();
+        for (Bitmap tile : tiles.values()) {
+            pool.release(tile);
+        }
+        tiles.clear();
+        for (Bitmap tile : spare) {
+            pool.release(tile);
+        }
+        spare.clear();
+    }
+}
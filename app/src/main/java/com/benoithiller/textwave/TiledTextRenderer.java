@@ -0,0 +1,340 @@
+package com.benoithiller.textwave;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * Renderer that rasterizes the message once into fixed width tiles and only blits the tiles that
+ * overlap the visible window on each frame.
+ *
+ * The tiles are kept in a {@link TileCache}. The hits and misses are counted in the
+ * {@link PerfStats}, to size the cache.
+ *
+ * Text without colour glyphs is cut into {@link Bitmap.Config#ALPHA_8} tiles that are tinted with
+ * the foreground colour as they are drawn. The background has to be filled under them, so those
+ * frames write every pixel twice instead of once, in exchange for caching the tiles at a quarter
+ * of the memory. Tile bitmaps come from and go back to the {@link BitmapPool}.
+ *
+ * With a {@link StripCache} set, every tile of a newly shown message is also written to disk on a
+ * low priority thread of its own, and the next time the same message is shown the tiles are
+ * copied out of the mapped file instead of being drawn. The write is given up as soon as another
+ * layout is asked for, so it never holds up preparing the next one.
+ */
+class TiledTextRenderer extends TextScrollRenderer {
+    /**
+     * Version of the way tiles are drawn. Must be bumped whenever it changes so strips cached by
+     * older versions are thrown away.
+     */
+    static final int CACHE_VERSION = 1;
+
+    private static Handler writeHandler;
+
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint maskPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final TileCache tiles = new TileCache();
+    private final TileDrawer drawer = new TileDrawer();
+
+    private volatile StripCache stripCache;
+
+    private TileLayout current;
+
+    /**
+     * The scaled glyph runs and the measurements needed to cut them into tiles
+     */
+    private static class TileLayout extends Prepared {
+        final Paint textPaint;
+        GlyphRuns runs;
+        final RectF pathBounds = new RectF();
+        final Rect textBounds = new Rect();
+        final RectF emojiDestination = new RectF();
+
+        /**
+         * Whether the tiles are only masks of the outlines
+         */
+        boolean mask;
+        /**
+         * The cached tiles, or null if they have to be drawn
+         */
+        StripCache.Strip strip;
+
+        float scaleChange;
+        float verticalOffset;
+        float emojiVerticalOffset;
+        int emojiWidth;
+        int emojiHeight;
+        int tileHeight;
+        int tileCount;
+
+        TileLayout(Layout layout) {
+            super(layout);
+            textPaint = createTextPaint(layout.foregroundColor);
+        }
+
+        Bitmap.Config getConfig() {
+            return mask ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888;
+        }
+
+        @Override
+        float getWidth() {
+            return pathBounds.width();
+        }
+    }
+
+    /**
+     * The paints and scratch bitmap needed to draw tiles. Each thread drawing tiles has its own.
+     */
+    private static class TileDrawer {
+        private final Canvas tileCanvas = new Canvas();
+        private final Canvas emojiCanvas = new Canvas();
+        private Bitmap emojiBitmap;
+        private Paint textPaint;
+        private Paint emojiPaint;
+
+        void draw(TileLayout layout, int index, Bitmap tile) {
+            if (textPaint == null) {
+                textPaint = createTextPaint(layout.layout.foregroundColor);
+                emojiPaint = createTextPaint(layout.layout.backgroundColor);
+            }
+            textPaint.setColor(layout.layout.foregroundColor);
+            emojiPaint.setColor(layout.layout.backgroundColor);
+
+            float left = index * TileCache.TILE_WIDTH;
+            float from = layout.pathBounds.left + left;
+            float to = from + TileCache.TILE_WIDTH;
+
+            tileCanvas.setBitmap(tile);
+            if (layout.mask) {
+                tile.eraseColor(Color.TRANSPARENT);
+            } else {
+                drawEmoji(layout, tile, left, from, to);
+            }
+
+            tileCanvas.save();
+            tileCanvas.translate(-layout.pathBounds.left - left, layout.verticalOffset);
+            layout.runs.drawPaths(tileCanvas, from, to, textPaint);
+            tileCanvas.restore();
+            tileCanvas.setBitmap(null);
+        }
+
+        /**
+         * Fill a tile with the background and the colour glyphs that overlap it
+         */
+        private void drawEmoji(TileLayout layout, Bitmap tile, float left, float from, float to) {
+            if (emojiBitmap == null
+                    || emojiBitmap.getWidth() != layout.emojiWidth
+                    || emojiBitmap.getHeight() != layout.emojiHeight) {
+                release();
+                emojiBitmap = BitmapPool.get().obtain(layout.emojiWidth, layout.emojiHeight, Bitmap.Config.ARGB_8888);
+                emojiCanvas.setBitmap(emojiBitmap);
+            }
+
+            emojiBitmap.eraseColor(Color.TRANSPARENT);
+            emojiCanvas.save();
+            emojiCanvas.translate(-layout.textBounds.left - left / layout.scaleChange, layout.emojiVerticalOffset);
+            layout.runs.drawText(emojiCanvas, from, to, 0, emojiPaint);
+            emojiCanvas.restore();
+
+            tile.eraseColor(layout.layout.backgroundColor);
+            tile.setHasAlpha(Color.alpha(layout.layout.backgroundColor) != 0xFF);
+            tileCanvas.drawBitmap(emojiBitmap, null, layout.emojiDestination, emojiPaint);
+        }
+
+        void release() {
+            if (emojiBitmap != null) {
+                emojiCanvas.setBitmap(null);
+                BitmapPool.get().release(emojiBitmap);
+                emojiBitmap = null;
+            }
+        }
+    }
+
+    private static synchronized Handler getWriteHandler() {
+        if (writeHandler == null) {
+            HandlerThread thread = new HandlerThread("StripWrite", Process.THREAD_PRIORITY_LOWEST);
+            thread.start();
+            writeHandler = new Handler(thread.getLooper());
+        }
+        return writeHandler;
+    }
+
+    /**
+     * @param stripCache where to keep rasterized messages between launches, or null to always draw
+     *                   them
+     */
+    public void setStripCache(StripCache stripCache) {
+        this.stripCache = stripCache;
+    }
+
+    @Override
+    protected void renderImpl(Canvas canvas, float offset) {
+        TileLayout current = this.current;
+        RectF bounds = current.layout.bounds;
+
+        int first = Math.max((int) Math.floor(offset / TileCache.TILE_WIDTH), 0);
+        int last = Math.min((int) Math.floor((offset + bounds.width()) / TileCache.TILE_WIDTH), current.tileCount - 1);
+
+        Paint paint = tilePaint;
+        if (current.mask) {
+            canvas.drawColor(current.layout.backgroundColor);
+            paint = maskPaint;
+        } else {
+            // the tiles are opaque, so the background only needs filling where there aren't any
+            fillAround(canvas, Math.max(bounds.left + first * TileCache.TILE_WIDTH - offset, bounds.left), bounds.top,
+                    Math.min(bounds.left + (last + 1) * TileCache.TILE_WIDTH - offset, bounds.right), bounds.bottom,
+                    current.layout.backgroundColor);
+        }
+
+        canvas.save();
+        canvas.clipRect(bounds);
+        for (int index = first; index <= last; index++) {
+            Bitmap tile = getTile(index);
+            canvas.drawBitmap(tile, bounds.left + index * TileCache.TILE_WIDTH - offset, bounds.top, paint);
+        }
+        canvas.restore();
+    }
+
+    @Override
+    protected void swap(Prepared prepared) {
+        current = (TileLayout) prepared;
+        tiles.reset(current.layout.bounds, current.mask);
+        maskPaint.setColor(current.layout.foregroundColor);
+    }
+
+    @Override
+    protected void trimCaches(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // visible tiles are simply drawn again on the next frame
+            tiles.clear();
+            drawer.release();
+        }
+    }
+
+    @Override
+    protected Prepared prepare(Layout layout) {
+        TileLayout prepared = new TileLayout(layout);
+        String text = layout.text;
+        RectF bounds = layout.bounds;
+        RectF pathBounds = prepared.pathBounds;
+        Rect textBounds = prepared.textBounds;
+
+        prepared.textPaint.getTextBounds(text, 0, text.length(), textBounds);
+
+        pathBounds.set(textBounds);
+
+        float scaleChange = bounds.height() / pathBounds.height();
+
+        float width = Math.min(pathBounds.width() * scaleChange, layout.maxWidth);
+        scaleChange = width / pathBounds.width();
+        prepared.scaleChange = scaleChange;
+
+        Matrix transformMatrix = new Matrix();
+        transformMatrix.setScale(scaleChange, scaleChange);
+
+        transformMatrix.mapRect(pathBounds);
+        prepared.runs = new GlyphRuns(text, prepared.textPaint, scaleChange);
+
+        prepared.tileHeight = (int) bounds.height();
+        prepared.tileCount = (int) Math.ceil(pathBounds.width() / TileCache.TILE_WIDTH);
+
+        prepared.verticalOffset = -pathBounds.top + (bounds.height() - pathBounds.height()) / 2;
+
+        prepared.mask = !hasColorGlyphs(text);
+        if (!prepared.mask) {
+            // colour glyphs can't be drawn at the full scaled size, so like the path renderer they
+            // are drawn small and stretched up to the size of the tile
+            prepared.emojiWidth = (int) Math.ceil(TileCache.TILE_WIDTH / scaleChange);
+            prepared.emojiHeight = Math.round(bounds.height() / scaleChange);
+            prepared.emojiVerticalOffset = -textBounds.top + (prepared.emojiHeight - textBounds.height()) / 2f;
+            prepared.emojiDestination.set(0, 0, prepared.emojiWidth * scaleChange, prepared.emojiHeight * scaleChange);
+        }
+
+        StripCache stripCache = this.stripCache;
+        if (stripCache != null && prepared.tileCount > 0) {
+            openStrip(stripCache, prepared);
+        }
+        return prepared;
+    }
+
+    /**
+     * Everything the pixels of the tiles depend on. The system fonts can change with an update,
+     * so the build is part of it too.
+     */
+    private static String cacheKey(TileLayout prepared) {
+        Layout layout = prepared.layout;
+        Paint paint = prepared.textPaint;
+        return Build.FINGERPRINT
+                + '\n' + paint.getTextSize() + ' ' + paint.getTypeface().getStyle()
+                + '\n' + Integer.toHexString(layout.foregroundColor) + ' ' + Integer.toHexString(layout.backgroundColor)
+                + '\n' + TileCache.TILE_WIDTH + ' ' + layout.bounds.width() + ' ' + layout.bounds.height()
+                + ' ' + layout.maxWidth
+                + '\n' + layout.text;
+    }
+
+    /**
+     * Map the cached tiles of a layout, or if there aren't any queue them to be written on the
+     * write thread for as long as the layout is still the one asked for. Runs on the preparation
+     * thread.
+     */
+    private void openStrip(final StripCache stripCache, final TileLayout prepared) {
+        final BitmapPool pool = BitmapPool.get();
+        final Bitmap scratch = pool.obtain(TileCache.TILE_WIDTH, prepared.tileHeight, prepared.getConfig());
+        final String key = cacheKey(prepared);
+        prepared.strip = stripCache.open(key, CACHE_VERSION, scratch, prepared.tileCount);
+        if (prepared.strip != null) {
+            pool.release(scratch);
+            return;
+        }
+        getWriteHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                final TileDrawer writer = new TileDrawer();
+                stripCache.write(key, CACHE_VERSION, scratch, prepared.tileCount, new StripCache.TileSource() {
+                    @Override
+                    public boolean draw(int index, Bitmap tile) {
+                        if (!isRequested(prepared.layout)) {
+                            return false;
+                        }
+                        writer.draw(prepared, index, tile);
+                        return true;
+                    }
+                });
+                writer.release();
+                pool.release(scratch);
+            }
+        });
+    }
+
+    private Bitmap getTile(int index) {
+        Bitmap tile = tiles.get(index);
+        PerfStats stats = getPerfStats();
+        if (stats != null) {
+            stats.onTileLookup(tile != null);
+        }
+        if (tile != null) {
+            return tile;
+        }
+
+        tile = tiles.obtain();
+        if (current.strip != null) {
+            current.strip.copyTile(index, tile);
+            if (!current.mask) {
+                tile.setHasAlpha(Color.alpha(current.layout.backgroundColor) != 0xFF);
+            }
+        } else {
+            drawer.draw(current, index, tile);
+        }
+        tiles.put(index, tile);
+        return tile;
+    }
+}
@@ -0,0 +1,100 @@
+package com.benoithiller.textwave;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Named sections for systrace, and the launch durations that show up in a captured trace as
+ * sections named after them.
+ *
+ * Only built in with {@code -PtraceSections}. Every call is made behind a check of
+ * {@link BuildConfig#TRACE_SECTIONS} so that without it the calls are compiled out.
+ */
+final class TraceSections {
+    private static final String TAG = "TraceSections";
+
+    // when Show was tapped, and when the first sensor event after it came in, or 0
+    private static volatile long shownAt = 0;
+    private static volatile long firstSensorEvent = 0;
+    private static volatile boolean awaitingMove = false;
+    // the offset of the first frame of text, which a frame has to differ from to have moved
+    private static volatile float firstOffset = Float.NaN;
+
+    private TraceSections() {
+    }
+
+    /**
+     * Start a section on the calling thread. Sections nest and must be ended on the same thread.
+     */
+    static void begin(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * End the innermost section started on the calling thread
+     */
+    static void end() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Start timing a launch of the scroller. Called on the main thread as Show is tapped.
+     */
+    static void markShow() {
+        firstSensorEvent = 0;
+        firstOffset = Float.NaN;
+        awaitingMove = true;
+        shownAt = System.nanoTime();
+    }
+
+    /**
+     * Called on the sensor thread for every event
+     *
+     * @param receivedAt the {@link System#nanoTime()} the event came in at
+     */
+    static void onSensorEvent(long receivedAt) {
+        if (awaitingMove && firstSensorEvent == 0) {
+            firstSensorEvent = receivedAt;
+        }
+    }
+
+    /**
+     * Called on the drawing thread after a frame of the text is rendered. The first one after
+     * Show was tapped ends the launch. After a sensor event, the first frame at an offset other
+     * than that of the first frame ends the wait for the text to move.
+     */
+    static void onFrameRendered(float offset) {
+        long now = System.nanoTime();
+        long shown = shownAt;
+        if (shown != 0) {
+            shownAt = 0;
+            report("Show to first frame", now - shown);
+        }
+        if (Float.isNaN(firstOffset)) {
+            firstOffset = offset;
+            return;
+        }
+        long sensorEvent = firstSensorEvent;
+        if (awaitingMove && sensorEvent != 0 && offset != firstOffset) {
+            awaitingMove = false;
+            report("First sensor event to first moved frame", now - sensorEvent);
+        }
+    }
+
+    /**
+     * Log a duration, and mark it in the trace as an empty section with the duration in its name
+     */
+    private static void report(String name, long nanos) {
+        String label = String.format(Locale.US, "%s: %.1f ms", name, nanos / 1e6);
+        Log.i(TAG, label);
+        begin(label);
+        end();
+    }
+}
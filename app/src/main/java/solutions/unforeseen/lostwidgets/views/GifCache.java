@@ -0,0 +1,209 @@
+package solutions.unforeseen.lostwidgets.views;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Decoded GIF frames shared by every view in the process, so showing an animation again doesn't
+ * decode it again.
+ *
+ * Each animation keeps the frames from its start for as far as the memory budget allows, the
+ * rest are decoded again whenever they are shown. Frames are cropped to the pixels that aren't
+ * transparent, which for an animation of something moving over an empty background is a small
+ * part of the whole. When the budget runs out the animations used longest ago are dropped first.
+ * Frames are never recycled, as a view might still be drawing them, they are left to the garbage
+ * collector instead.
+ */
+final class GifCache implements ComponentCallbacks2 {
+    private static GifCache instance;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, Animation> animations = new LinkedHashMap<>(4, 0.75f, true);
+    private long bytes = 0;
+
+    /**
+     * What is known about one animation
+     */
+    static final class Animation {
+        final int resource;
+        private volatile int width = 0;
+        private volatile int height = 0;
+        private final List<GifFrame> frames = new ArrayList<>();
+        private int frameCount = -1;
+        private boolean full = false;
+        private long bytes = 0;
+
+        Animation(int resource) {
+            this.resource = resource;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return whether the size is known, which it is once the animation started decoding
+         */
+        boolean hasSize() {
+            return width > 0;
+        }
+    }
+
+    GifCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache shared by all the views, dropped when the system is short on memory
+     */
+    static synchronized GifCache get(Context context) {
+        if (instance == null) {
+            instance = new GifCache(Runtime.getRuntime().maxMemory() / 8);
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    synchronized Animation getAnimation(int resource) {
+        Animation animation = animations.get(resource);
+        if (animation == null) {
+            animation = new Animation(resource);
+            animations.put(resource, animation);
+        }
+        return animation;
+    }
+
+    synchronized void setSize(Animation animation, int width, int height) {
+        animation.width = width;
+        animation.height = height;
+    }
+
+    /**
+     * @return the number of frames, or -1 if the animation hasn't been decoded to the end yet
+     */
+    synchronized int getFrameCount(Animation animation) {
+        return animation.frameCount;
+    }
+
+    synchronized void setFrameCount(Animation animation, int frameCount) {
+        animation.frameCount = frameCount;
+    }
+
+    /**
+     * @return the frame if it is cached, otherwise null
+     */
+    synchronized GifFrame getFrame(Animation animation, int index) {
+        return index < animation.frames.size() ? animation.frames.get(index) : null;
+    }
+
+    /**
+     * Keep a copy of a frame just decoded, if it is the next one missing from the start of the
+     * animation and there is room for it
+     *
+     * @param pixels the whole canvas of the animation
+     * @return the cached frame, or null if it wasn't kept
+     */
+    synchronized GifFrame add(Animation animation, int index, int[] pixels, int delay) {
+        if (animation.full || index != animation.frames.size()) {
+            return null;
+        }
+        int width = animation.width;
+        int height = animation.height;
+
+        // crop to the pixels that aren't transparent
+        int left = width;
+        int top = height;
+        int right = 0;
+        int bottom = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (pixels[row + x] >>> 24 != 0) {
+                    left = Math.min(left, x);
+                    right = Math.max(right, x + 1);
+                    top = Math.min(top, y);
+                    bottom = y + 1;
+                }
+            }
+        }
+        if (left >= right) {
+            // nothing to draw, keep a single pixel so the frame still has a bitmap
+            left = 0;
+            top = 0;
+            right = 1;
+            bottom = 1;
+        }
+
+        long size = 4L * (right - left) * (bottom - top);
+        if (!makeRoom(animation, size)) {
+            animation.full = true;
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(pixels, top * width + left, width, right - left,
+                bottom - top, Bitmap.Config.ARGB_8888);
+        GifFrame frame = new GifFrame(bitmap, left, top, delay, false);
+        animation.frames.add(frame);
+        animation.bytes += size;
+        bytes += size;
+        return frame;
+    }
+
+    /**
+     * Drop other animations until there is room for a new frame
+     *
+     * @return false if there isn't room even with all of them dropped
+     */
+    private boolean makeRoom(Animation keep, long size) {
+        Iterator<Animation> iterator = animations.values().iterator();
+        while (bytes + size > maxBytes && iterator.hasNext()) {
+            Animation animation = iterator.next();
+            if (animation != keep) {
+                drop(animation);
+            }
+        }
+        return bytes + size <= maxBytes;
+    }
+
+    private void drop(Animation animation) {
+        bytes -= animation.bytes;
+        animation.bytes = 0;
+        animation.frames.clear();
+        animation.full = false;
+    }
+
+    /**
+     * Drop every cached frame
+     */
+    synchronized void clear() {
+        for (Animation animation : animations.values()) {
+            drop(animation);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
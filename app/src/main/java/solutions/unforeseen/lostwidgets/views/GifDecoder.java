@@ -0,0 +1,487 @@
+package solutions.unforeseen.lostwidgets.views;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming GIF decoder. Frames are read from the stream one at a time as they are asked for and
+ * composited onto a single canvas of ARGB pixels, so only one frame's worth of memory is used
+ * however long the animation is.
+ *
+ * Doesn't touch any Android classes so it can run on any thread.
+ */
+final class GifDecoder {
+    /**
+     * Frames with no delay or a shorter one than this in milliseconds are shown for
+     * {@link #DEFAULT_DELAY}, the same as browsers do
+     */
+    static final int MIN_DELAY = 20;
+    static final int DEFAULT_DELAY = 100;
+
+    private static final int DISPOSE_BACKGROUND = 2;
+    private static final int DISPOSE_PREVIOUS = 3;
+
+    private static final int MAX_CODES = 4096;
+
+    private final InputStream in;
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final int[] globalColors;
+
+    private final int[] localColors = new int[256];
+    private final byte[] block = new byte[255];
+    private final short[] prefix = new short[MAX_CODES];
+    private final byte[] suffix = new byte[MAX_CODES];
+    private final byte[] stack = new byte[MAX_CODES + 1];
+    private byte[] indices;
+    private int[] previous;
+
+    private int frameIndex = -1;
+    private int delay;
+    private int disposal;
+    private int transparentIndex = -1;
+    private boolean opaque;
+
+    // area and disposal of the last frame, applied before the next one is drawn
+    private int lastDisposal;
+    private int lastLeft;
+    private int lastTop;
+    private int lastWidth;
+    private int lastHeight;
+
+    private int blockSize = 0;
+    private int blockPosition = 0;
+
+    /**
+     * Read the header of a GIF
+     *
+     * @throws IOException if the stream can't be read or isn't a GIF
+     */
+    GifDecoder(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in, 8192);
+        byte[] signature = new byte[6];
+        readFully(signature);
+        if (signature[0] != 'G' || signature[1] != 'I' || signature[2] != 'F') {
+            throw new IOException("Not a GIF");
+        }
+        width = readShort();
+        height = readShort();
+        int flags = read();
+        read(); // background colour, frames are cleared to transparent instead
+        read(); // pixel aspect ratio
+        if ((flags & 0x80) != 0) {
+            globalColors = new int[256];
+            readColors(globalColors, 2 << (flags & 7));
+        } else {
+            globalColors = null;
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Empty GIF");
+        }
+        pixels = new int[width * height];
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the index of the last frame read, -1 before the first
+     */
+    int getFrameIndex() {
+        return frameIndex;
+    }
+
+    /**
+     * @return how long to show the last frame read for in milliseconds
+     */
+    int getDelay() {
+        return delay;
+    }
+
+    /**
+     * @return whether the canvas had no transparent pixels after the last frame decoded
+     */
+    boolean isOpaque() {
+        return opaque;
+    }
+
+    /**
+     * @return the canvas, width * height ARGB pixels of the animation as of the last frame read
+     */
+    int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Decode the next frame onto the canvas
+     *
+     * @return false at the end of the animation
+     * @throws IOException if the stream can't be read or is corrupt
+     */
+    boolean next() throws IOException {
+        if (!readUntilImage()) {
+            return false;
+        }
+        dispose();
+        int left = readShort();
+        int top = readShort();
+        int frameWidth = readShort();
+        int frameHeight = readShort();
+        int flags = read();
+        int[] colors = globalColors;
+        if ((flags & 0x80) != 0) {
+            readColors(localColors, 2 << (flags & 7));
+            colors = localColors;
+        }
+        if (colors == null) {
+            throw new IOException("No colour table");
+        }
+        if (disposal == DISPOSE_PREVIOUS) {
+            if (previous == null) {
+                previous = new int[pixels.length];
+            }
+            System.arraycopy(pixels, 0, previous, 0, pixels.length);
+        }
+
+        decodeIndices(frameWidth * frameHeight);
+        drawIndices(colors, left, top, frameWidth, frameHeight, (flags & 0x40) != 0);
+        finishFrame(left, top, frameWidth, frameHeight);
+
+        opaque = true;
+        for (int pixel : pixels) {
+            if (pixel >>> 24 == 0) {
+                opaque = false;
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Step over the next frame without decoding it, leaving the canvas undefined until
+     * {@link #resume(int[])} is called with what it should have been
+     *
+     * @return false at the end of the animation
+     * @throws IOException if the stream can't be read or is corrupt
+     */
+    boolean skip() throws IOException {
+        if (!readUntilImage()) {
+            return false;
+        }
+        int left = readShort();
+        int top = readShort();
+        int frameWidth = readShort();
+        int frameHeight = readShort();
+        int flags = read();
+        if ((flags & 0x80) != 0) {
+            skipFully(3 * (2 << (flags & 7)));
+        }
+        read(); // LZW code size
+        skipBlocks();
+        finishFrame(left, top, frameWidth, frameHeight);
+        return true;
+    }
+
+    /**
+     * Whether decoding can carry on from a copy of the last frame after skipping. A frame that is
+     * undone afterwards needs the canvas from before it, which only a full decode has.
+     */
+    boolean canResume() {
+        return lastDisposal != DISPOSE_PREVIOUS;
+    }
+
+    /**
+     * Carry on after {@link #skip()} from a copy of the last frame that was skipped
+     *
+     * @param frame the pixels of the last frame, the same as {@link #getPixels()} after decoding it
+     */
+    void resume(int[] frame) {
+        if (!canResume()) {
+            throw new IllegalStateException("Can't resume after a frame that restores the previous one");
+        }
+        System.arraycopy(frame, 0, pixels, 0, pixels.length);
+    }
+
+    void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // nothing else to do with it
+        }
+    }
+
+    /**
+     * Read extensions up to the start of the next image
+     *
+     * @return false at the end of the animation
+     */
+    private boolean readUntilImage() throws IOException {
+        delay = DEFAULT_DELAY;
+        disposal = 0;
+        transparentIndex = -1;
+        while (true) {
+            int code = in.read();
+            switch (code) {
+                case 0x2C:
+                    return true;
+                case 0x21:
+                    if (read() == 0xF9) {
+                        readGraphicControl();
+                    } else {
+                        skipBlocks();
+                    }
+                    break;
+                case 0x3B:
+                case -1:
+                    // a stream cut short still shows the frames before it
+                    return false;
+                default:
+                    throw new IOException("Unknown block " + code);
+            }
+        }
+    }
+
+    private void readGraphicControl() throws IOException {
+        int size = read();
+        int flags = read();
+        int hundredths = readShort();
+        int transparent = read();
+        skipFully(size - 4);
+        skipBlocks();
+        disposal = (flags >> 2) & 7;
+        transparentIndex = (flags & 1) != 0 ? transparent : -1;
+        delay = hundredths * 10 < MIN_DELAY ? DEFAULT_DELAY : hundredths * 10;
+    }
+
+    private void finishFrame(int left, int top, int frameWidth, int frameHeight) {
+        frameIndex++;
+        lastDisposal = disposal;
+        lastLeft = left;
+        lastTop = top;
+        lastWidth = frameWidth;
+        lastHeight = frameHeight;
+    }
+
+    /**
+     * Undo the last frame as its disposal asks before drawing the next one over it
+     */
+    private void dispose() {
+        if (frameIndex < 0) {
+            return;
+        }
+        if (lastDisposal == DISPOSE_BACKGROUND) {
+            int right = Math.min(lastLeft + lastWidth, width);
+            int bottom = Math.min(lastTop + lastHeight, height);
+            for (int y = lastTop; y < bottom; y++) {
+                if (lastLeft < right) {
+                    Arrays.fill(pixels, y * width + lastLeft, y * width + right, 0);
+                }
+            }
+        } else if (lastDisposal == DISPOSE_PREVIOUS && previous != null) {
+            System.arraycopy(previous, 0, pixels, 0, pixels.length);
+        }
+    }
+
+    /**
+     * Expand the LZW compressed image data into colour indices
+     */
+    private void decodeIndices(int count) throws IOException {
+        if (indices == null || indices.length < count) {
+            indices = new byte[count];
+        }
+        int codeSize = read();
+        if (codeSize < 1 || codeSize > 11) {
+            throw new IOException("Bad LZW code size " + codeSize);
+        }
+        int clear = 1 << codeSize;
+        int end = clear + 1;
+        int available = clear + 2;
+        int size = codeSize + 1;
+        int mask = (1 << size) - 1;
+        int old = -1;
+        int first = 0;
+
+        int bits = 0;
+        int datum = 0;
+        int written = 0;
+        blockSize = 0;
+        blockPosition = 0;
+        for (int i = 0; i < clear; i++) {
+            prefix[i] = 0;
+            suffix[i] = (byte) i;
+        }
+
+        while (written < count) {
+            while (bits < size) {
+                int next = readBlockByte();
+                if (next < 0) {
+                    // data ends early, leave the rest of the frame as the first index
+                    Arrays.fill(indices, written, count, (byte) 0);
+                    return;
+                }
+                datum |= next << bits;
+                bits += 8;
+            }
+            int code = datum & mask;
+            datum >>= size;
+            bits -= size;
+
+            if (code == clear) {
+                size = codeSize + 1;
+                mask = (1 << size) - 1;
+                available = clear + 2;
+                old = -1;
+                continue;
+            }
+            if (code == end) {
+                break;
+            }
+            if (old == -1) {
+                if (code >= clear) {
+                    throw new IOException("Bad first LZW code");
+                }
+                indices[written++] = suffix[code];
+                old = code;
+                first = code;
+                continue;
+            }
+
+            int in = code;
+            int top = 0;
+            if (code > available) {
+                throw new IOException("Bad LZW code");
+            } else if (code == available) {
+                // the code being defined by this very step, the previous string plus its first index
+                stack[top++] = (byte) first;
+                code = old;
+            }
+            while (code >= clear) {
+                stack[top++] = suffix[code];
+                code = prefix[code];
+            }
+            first = suffix[code] & 0xFF;
+            stack[top++] = (byte) first;
+
+            if (available < MAX_CODES) {
+                prefix[available] = (short) old;
+                suffix[available] = (byte) first;
+                available++;
+                if ((available & mask) == 0 && available < MAX_CODES) {
+                    size++;
+                    mask = (1 << size) - 1;
+                }
+            }
+            old = in;
+
+            while (top > 0 && written < count) {
+                indices[written++] = stack[--top];
+            }
+        }
+        // the current block has been read already, skip any after it up to the terminator
+        skipBlocks();
+    }
+
+    private int readBlockByte() throws IOException {
+        if (blockPosition == blockSize) {
+            blockSize = read();
+            blockPosition = 0;
+            if (blockSize == 0) {
+                return -1;
+            }
+            readFully(block, blockSize);
+        }
+        return block[blockPosition++] & 0xFF;
+    }
+
+    private void drawIndices(int[] colors, int left, int top, int frameWidth, int frameHeight,
+                             boolean interlaced) {
+        int pass = 0;
+        int step = interlaced ? 8 : 1;
+        int row = 0;
+        for (int i = 0; i < frameHeight; i++) {
+            int y = top + row;
+            if (y < height) {
+                int source = i * frameWidth;
+                int target = y * width + left;
+                int end = Math.min(frameWidth, width - left);
+                for (int x = 0; x < end; x++) {
+                    int index = indices[source + x] & 0xFF;
+                    if (index != transparentIndex) {
+                        pixels[target + x] = colors[index];
+                    }
+                }
+            }
+            row += step;
+            // interlaced rows come in four passes, every 8th row from 0, then from 4, 2 and 1
+            while (interlaced && row >= frameHeight && pass < 3) {
+                pass++;
+                row = 8 >> pass;
+                step = row * 2;
+            }
+        }
+    }
+
+    private void readColors(int[] colors, int count) throws IOException {
+        byte[] rgb = new byte[count * 3];
+        readFully(rgb);
+        for (int i = 0; i < count; i++) {
+            colors[i] = 0xFF000000 | (rgb[i * 3] & 0xFF) << 16 | (rgb[i * 3 + 1] & 0xFF) << 8 | (rgb[i * 3 + 2] & 0xFF);
+        }
+        // indices past the end of a short table are black
+        Arrays.fill(colors, count, colors.length, 0xFF000000);
+    }
+
+    private void skipBlocks() throws IOException {
+        int size;
+        while ((size = read()) > 0) {
+            skipFully(size);
+        }
+    }
+
+    private int read() throws IOException {
+        int value = in.read();
+        if (value < 0) {
+            throw new EOFException();
+        }
+        return value;
+    }
+
+    private int readShort() throws IOException {
+        return read() | read() << 8;
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        readFully(buffer, buffer.length);
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(buffer, offset, length - offset);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            offset += count;
+        }
+    }
+
+    private void skipFully(long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                read();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package solutions.unforeseen.lostwidgets.views;
+
+import android.graphics.Bitmap;
+
+/**
+ * A decoded frame of a GIF. Frames kept in the {@link GifCache} are cropped to the pixels that
+ * aren't transparent, so the bitmap covers only part of the animation.
+ */
+final class GifFrame {
+    final Bitmap bitmap;
+    final int left;
+    final int top;
+    /**
+     * How long to show the frame for in milliseconds
+     */
+    final int delay;
+    /**
+     * Whether the bitmap is one of a player's ring, which is reused once the frame is replaced
+     */
+    final boolean reused;
+
+    GifFrame(Bitmap bitmap, int left, int top, int delay, boolean reused) {
+        this.bitmap = bitmap;
+        this.left = left;
+        this.top = top;
+        this.delay = delay;
+        this.reused = reused;
+    }
+}
@@ -0,0 +1,386 @@
+package solutions.unforeseen.lostwidgets.views;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Plays a looping GIF resource. Frames come from the {@link GifCache} where they can, the rest
+ * are decoded a few frames ahead on a shared background thread into a small ring of bitmaps that
+ * are reused once they have been shown.
+ *
+ * {@link #getFrame(long)}, {@link #start()}, {@link #stop()}, {@link #pause(long)} and
+ * {@link #resume(long)} are called on the main thread.
+ */
+final class GifPlayer {
+    private static final String TAG = "GifPlayer";
+
+    /**
+     * Number of frames decoded ahead, and the most bitmaps the ring holds
+     */
+    static final int RING_SIZE = 3;
+
+    private static Handler decodeHandler;
+
+    private final Resources resources;
+    private final GifCache cache;
+    private final GifCache.Animation animation;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable onFrameReady;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<GifFrame> ready = new ArrayDeque<>();
+    private final ArrayDeque<Bitmap> ring = new ArrayDeque<>();
+    private int ringAllocated = 0;
+    private boolean running = false;
+    // whether the main thread is waiting on the decoder for the next frame
+    private boolean waiting = false;
+
+    private GifFrame current;
+    private long currentStart;
+    private long pausedAt = -1;
+
+    // only used on the decoding thread
+    private GifDecoder decoder;
+    private int nextIndex = 0;
+    private int[] resumePixels;
+
+    /**
+     * @param resource     the raw or drawable resource of the GIF
+     * @param onFrameReady run on the main thread once the first frame is ready, which is also when
+     *                     the size is known, and when a frame that was due late is ready
+     */
+    GifPlayer(Context context, int resource, Runnable onFrameReady) {
+        resources = context.getResources();
+        cache = GifCache.get(context);
+        animation = cache.getAnimation(resource);
+        this.onFrameReady = onFrameReady;
+    }
+
+    private static synchronized Handler getDecodeHandler() {
+        if (decodeHandler == null) {
+            HandlerThread thread = new HandlerThread("GifDecode", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            decodeHandler = new Handler(thread.getLooper());
+        }
+        return decodeHandler;
+    }
+
+    /**
+     * @return whether the size is known, which it is straight away if the animation was shown
+     * before
+     */
+    boolean hasSize() {
+        return animation.hasSize();
+    }
+
+    int getWidth() {
+        return animation.getWidth();
+    }
+
+    int getHeight() {
+        return animation.getHeight();
+    }
+
+    /**
+     * Start decoding ahead from the start of the animation
+     */
+    void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            waiting = true;
+        }
+        getDecodeHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                closeDecoder();
+                nextIndex = 0;
+            }
+        });
+        getDecodeHandler().post(fill);
+    }
+
+    /**
+     * Stop decoding and let go of the ring
+     */
+    void stop() {
+        synchronized (lock) {
+            running = false;
+            waiting = false;
+            ready.clear();
+            ring.clear();
+            ringAllocated = 0;
+            current = null;
+            pausedAt = -1;
+        }
+        getDecodeHandler().removeCallbacks(fill);
+        getDecodeHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                closeDecoder();
+            }
+        });
+    }
+
+    /**
+     * Move on to the frame that should be showing at a time
+     *
+     * @param now the time in milliseconds since boot, not counting deep sleep
+     * @return the frame to draw, or null if none is ready yet
+     */
+    GifFrame getFrame(long now) {
+        boolean advanced = false;
+        synchronized (lock) {
+            if (current == null) {
+                current = ready.poll();
+                currentStart = now;
+                advanced = current != null;
+            } else {
+                while (!ready.isEmpty() && now >= currentStart + current.delay) {
+                    if (current.reused) {
+                        ring.add(current.bitmap);
+                    }
+                    currentStart += current.delay;
+                    current = ready.poll();
+                    advanced = true;
+                }
+                // when decoding falls behind, show the frame for its whole delay from now on
+                if (now - currentStart > current.delay) {
+                    currentStart = now;
+                }
+            }
+            waiting = ready.isEmpty() && (current == null || now >= currentStart + current.delay);
+        }
+        if (advanced) {
+            getDecodeHandler().post(fill);
+        }
+        return current;
+    }
+
+    /**
+     * @return the frame showing, without moving on
+     */
+    GifFrame getCurrentFrame() {
+        synchronized (lock) {
+            return current;
+        }
+    }
+
+    /**
+     * @return when the frame showing should be replaced, in the same time base as
+     * {@link #getFrame(long)}, or -1 if no frame is showing yet. If the next frame isn't decoded
+     * by then the frame ready callback runs once it is.
+     */
+    long getFrameEnd() {
+        synchronized (lock) {
+            return current == null ? -1 : currentStart + current.delay;
+        }
+    }
+
+    /**
+     * Hold the frame showing until {@link #resume(long)}. Decoding stops once the ring is full.
+     *
+     * @param now the time in milliseconds since boot, not counting deep sleep
+     */
+    void pause(long now) {
+        synchronized (lock) {
+            if (pausedAt < 0) {
+                pausedAt = now;
+            }
+        }
+    }
+
+    /**
+     * Carry on showing the frame that was showing for the rest of its delay
+     *
+     * @param now the time in milliseconds since boot, not counting deep sleep
+     */
+    void resume(long now) {
+        synchronized (lock) {
+            if (pausedAt >= 0 && current != null) {
+                currentStart += now - pausedAt;
+            }
+            pausedAt = -1;
+        }
+    }
+
+    private final Runnable fill = new Runnable() {
+        @Override
+        public void run() {
+            boolean notify = false;
+            while (true) {
+                synchronized (lock) {
+                    if (!running || ready.size() >= RING_SIZE) {
+                        break;
+                    }
+                }
+                GifFrame frame;
+                try {
+                    frame = produce();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Couldn't decode GIF", e);
+                    synchronized (lock) {
+                        running = false;
+                    }
+                    closeDecoder();
+                    break;
+                }
+                if (frame == null) {
+                    // the ring is full until the frame showing is replaced
+                    break;
+                }
+                synchronized (lock) {
+                    if (!running) {
+                        break;
+                    }
+                    notify |= waiting;
+                    waiting = false;
+                    ready.add(frame);
+                }
+            }
+            if (notify) {
+                mainHandler.post(onFrameReady);
+            }
+        }
+    };
+
+    /**
+     * Get the next frame from the cache, or decode it
+     *
+     * @return the frame, or null if it has to be decoded and there is no free bitmap in the ring
+     */
+    private GifFrame produce() throws IOException {
+        int frameCount = cache.getFrameCount(animation);
+        if (frameCount >= 0 && nextIndex >= frameCount) {
+            nextIndex = 0;
+        }
+        GifFrame cached = cache.getFrame(animation, nextIndex);
+        if (cached != null) {
+            nextIndex++;
+            return cached;
+        }
+
+        if (!seek(nextIndex)) {
+            return loop();
+        }
+        Bitmap bitmap;
+        synchronized (lock) {
+            bitmap = ring.poll();
+            if (bitmap == null && ringAllocated < RING_SIZE) {
+                ringAllocated++;
+                bitmap = Bitmap.createBitmap(decoder.getWidth(), decoder.getHeight(), Bitmap.Config.ARGB_8888);
+            }
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        if (!decoder.next()) {
+            giveBack(bitmap);
+            return loop();
+        }
+
+        GifFrame frame = cache.add(animation, nextIndex, decoder.getPixels(), decoder.getDelay());
+        if (frame != null) {
+            giveBack(bitmap);
+        } else {
+            bitmap.setPixels(decoder.getPixels(), 0, decoder.getWidth(), 0, 0, decoder.getWidth(),
+                    decoder.getHeight());
+            frame = new GifFrame(bitmap, 0, 0, decoder.getDelay(), true);
+        }
+        nextIndex++;
+        return frame;
+    }
+
+    /**
+     * Go back to the start after reading past the end, which also tells the length
+     */
+    private GifFrame loop() throws IOException {
+        int frameCount = decoder.getFrameIndex() + 1;
+        if (frameCount == 0) {
+            throw new IOException("GIF has no frames");
+        }
+        cache.setFrameCount(animation, frameCount);
+        nextIndex = 0;
+        return produce();
+    }
+
+    private void giveBack(Bitmap bitmap) {
+        synchronized (lock) {
+            if (running) {
+                ring.add(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Get the decoder to just before a frame. The frames before it that are cached are only read
+     * past, and decoding carries on from a copy of the last of them.
+     *
+     * @return false if the animation ends before the frame
+     */
+    private boolean seek(int index) throws IOException {
+        if (decoder == null || decoder.getFrameIndex() >= index) {
+            closeDecoder();
+            decoder = new GifDecoder(resources.openRawResource(animation.resource));
+            cache.setSize(animation, decoder.getWidth(), decoder.getHeight());
+        }
+        if (decoder.getFrameIndex() == index - 1) {
+            return true;
+        }
+
+        GifFrame resumeFrom = cache.getFrame(animation, index - 1);
+        if (resumeFrom != null) {
+            while (decoder.getFrameIndex() < index - 1) {
+                if (!decoder.skip()) {
+                    return false;
+                }
+            }
+            if (decoder.canResume()) {
+                resume(resumeFrom);
+                return true;
+            }
+            // the copy isn't enough to carry on from, start again and decode everything
+            closeDecoder();
+            decoder = new GifDecoder(resources.openRawResource(animation.resource));
+        }
+        while (decoder.getFrameIndex() < index - 1) {
+            if (!decoder.next()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Put a cached frame back on the decoder's canvas
+     */
+    private void resume(GifFrame frame) {
+        int width = decoder.getWidth();
+        if (resumePixels == null) {
+            resumePixels = new int[width * decoder.getHeight()];
+        }
+        Arrays.fill(resumePixels, 0);
+        frame.bitmap.getPixels(resumePixels, frame.top * width + frame.left, width, 0, 0,
+                frame.bitmap.getWidth(), frame.bitmap.getHeight());
+        decoder.resume(resumePixels);
+    }
+
+    private void closeDecoder() {
+        if (decoder != null) {
+            decoder.close();
+            decoder = null;
+        }
+    }
+}
@@ -2,27 +2,49 @@ package solutions.unforeseen.lostwidgets.views;
 
 import android.content.Context;
 import android.content.res.TypedArray;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Movie;
 import android.graphics.Rect;
-import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
+import android.view.WindowManager;
 
 import com.benoithiller.textwave.R;
 
+import java.util.Locale;
+
 /**
- * View to display a looped movie. It may only support GIF.
+ * View to display a looped movie. It only supports GIF.
+ *
+ * The frames are decoded on a background thread and kept for the next time the same movie is
+ * shown, see {@link GifPlayer}.
+ *
+ * The view is only redrawn when the next frame of the movie is due. Playback is held while the
+ * view is detached, hidden or the activity is paused, see {@link #onPause()}.
  */
 public class MovieView extends View {
-    private Movie movie;
-    private long movieStart;
-    private Rect movieBounds;
-    private Bitmap movieBitmap;
-    private Canvas movieCanvas;
+    private static final String TAG = "MovieView";
+
+    private GifPlayer player;
+    private final Rect frameBounds = new Rect();
+
+    private final Runnable nextFrame = new Runnable() {
+        @Override
+        public void run() {
+            invalidate();
+        }
+    };
+
+    private boolean attached = false;
+    private boolean resumed = true;
+    private boolean playing = false;
+    private boolean measuredMovie = false;
+
+    // how many draws scheduling on the frame deadlines saved over redrawing every vsync
+    private final float refreshRate;
+    private long playingSince;
+    private int draws;
 
     private float aspectRatio = -1;
 
@@ -42,42 +64,100 @@ public class MovieView extends View {
                 throw new NullPointerException("Source attribute missing.");
             }
             aspectRatio = typedAttributes.getFloat(R.styleable.MovieView_aspectRatio, -1);
-            new AsyncTask<Integer,Void,Movie>() {
+            player = new GifPlayer(context, videoId, new Runnable() {
                 @Override
-                protected Movie doInBackground(Integer... params) {
-                    int videoId = params[0];
-                    return Movie.decodeStream(context.getResources().openRawResource(videoId));
+                public void run() {
+                    onFrameReady();
                 }
-
-                @Override
-                protected void onPostExecute(Movie movie) {
-                    setMovie(movie);
-                }
-            }.execute(videoId);
+            });
         } finally {
             typedAttributes.recycle();
         }
+
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
     }
 
-    private void setMovie(Movie movie) {
-        Log.d("movie", "Movie loaded");
-        movieStart = android.os.SystemClock.uptimeMillis();
-        movieBounds = new Rect(0, 0, movie.width(), movie.height());
-        movieBitmap =
-                Bitmap.createBitmap(movie.width(), movie.height(), Bitmap.Config.ARGB_8888);
-        movieCanvas = new Canvas(movieBitmap);
-        this.movie = movie;
-
-        //TODO: remove unnecessary calls
-        requestLayout();
+    private void onFrameReady() {
+        // the size of the movie is only known once the first frame is
+        if (!measuredMovie) {
+            requestLayout();
+        }
         invalidate();
-        if (getParent() instanceof View) {
-            View parent = (View) getParent();
-            parent.requestLayout();
-            parent.invalidate();
+    }
+
+    /**
+     * Hold the movie on the frame showing. Call from the activity's onPause.
+     */
+    public void onPause() {
+        resumed = false;
+        updatePlaying();
+    }
+
+    /**
+     * Carry on from where {@link #onPause()} held the movie. Call from the activity's onResume.
+     */
+    public void onResume() {
+        resumed = true;
+        updatePlaying();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        player.start();
+        updatePlaying();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        attached = false;
+        updatePlaying();
+        player.stop();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updatePlaying();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updatePlaying();
+    }
+
+    /**
+     * Start or hold playback to match whether the movie can be seen
+     */
+    private void updatePlaying() {
+        boolean shouldPlay = attached && resumed && isShown() && getWindowVisibility() == VISIBLE;
+        if (shouldPlay == playing) {
+            return;
+        }
+        playing = shouldPlay;
+        long now = SystemClock.uptimeMillis();
+        if (playing) {
+            player.resume(now);
+            playingSince = now;
+            draws = 0;
+            invalidate();
+        } else {
+            player.pause(now);
+            removeCallbacks(nextFrame);
+            logDraws(now - playingSince);
         }
     }
 
+    private void logDraws(long playingTime) {
+        long vsyncs = (long) (playingTime * refreshRate / 1000);
+        Log.d(TAG, String.format(Locale.US, "Drew %d frames in %d ms, %d fewer than every vsync",
+                draws, playingTime, Math.max(0, vsyncs - draws)));
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         int widthMode = MeasureSpec.getMode(widthMeasureSpec);
@@ -85,9 +165,10 @@ public class MovieView extends View {
         int heightMode = MeasureSpec.getMode(heightMeasureSpec);
         int heightSize = MeasureSpec.getSize(heightMeasureSpec);
 
-        if (movie != null) {
-            int desiredWidth = movie.width();
-            int desiredHeight = movie.height();
+        measuredMovie = player.hasSize();
+        if (measuredMovie) {
+            int desiredWidth = player.getWidth();
+            int desiredHeight = player.getHeight();
             float aspectRatio = (float) desiredWidth / desiredHeight;
 
             if (widthMode == MeasureSpec.EXACTLY
@@ -144,19 +225,36 @@ public class MovieView extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if (movie != null && movie.duration() != 0) {
-            int runtime =
-                    (int) ((android.os.SystemClock.uptimeMillis() - movieStart) % movie.duration());
-            movie.setTime(runtime);
-
-            movieBitmap.eraseColor(Color.TRANSPARENT);
-            movie.draw(movieCanvas, 0, 0);
-
-            canvas.drawBitmap(movieBitmap, movieBounds, bounds, null);
+        if (player.hasSize()) {
+            long now = SystemClock.uptimeMillis();
+            GifFrame frame = playing ? player.getFrame(now) : player.getCurrentFrame();
+            if (frame != null) {
+                // cached frames only cover part of the movie
+                float scaleX = (float) bounds.width() / player.getWidth();
+                float scaleY = (float) bounds.height() / player.getHeight();
+                frameBounds.set(bounds.left + Math.round(frame.left * scaleX),
+                        bounds.top + Math.round(frame.top * scaleY),
+                        bounds.left + Math.round((frame.left + frame.bitmap.getWidth()) * scaleX),
+                        bounds.top + Math.round((frame.top + frame.bitmap.getHeight()) * scaleY));
+                canvas.drawBitmap(frame.bitmap, null, frameBounds, null);
+            }
 
-            invalidate();
+            if (playing) {
+                draws++;
+                scheduleNextFrame(now);
+            }
         }
+    }
 
-
+    /**
+     * Redraw when the next frame is due. If it is already due it isn't decoded yet, and the player
+     * calls back once it is.
+     */
+    private void scheduleNextFrame(long now) {
+        removeCallbacks(nextFrame);
+        long frameEnd = player.getFrameEnd();
+        if (frameEnd > now) {
+            postDelayed(nextFrame, frameEnd - now);
+        }
     }
 }
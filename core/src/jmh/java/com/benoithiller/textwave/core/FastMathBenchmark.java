@@ -0,0 +1,85 @@
+package com.benoithiller.textwave.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FastMath} against {@link Math}, on their own and in the angle computed for every gravity
+ * sample.
+ *
+ * Run with ./gradlew :core:jmh -PjmhInclude=FastMath
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FastMathBenchmark {
+    private static final int SAMPLES = 4096;
+
+    private final float[] xs = new float[SAMPLES];
+    private final float[] ys = new float[SAMPLES];
+    private final float[] angles = new float[SAMPLES];
+    private final MutableVector2 gravity = new MutableVector2();
+    private final MutableVector2 up = new MutableVector2(0, 1);
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            double angle = (random.nextDouble() - 0.5) * 2 * Math.PI;
+            xs[i] = (float) (9.81 * Math.sin(angle));
+            ys[i] = (float) (9.81 * Math.cos(angle));
+            angles[i] = (float) angle;
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (SAMPLES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public double mathAtan2() {
+        int i = next();
+        return Math.atan2(ys[i], xs[i]);
+    }
+
+    @Benchmark
+    public float fastAtan2() {
+        int i = next();
+        return FastMath.atan2(ys[i], xs[i]);
+    }
+
+    @Benchmark
+    public double mathSin() {
+        return Math.sin(angles[next()]);
+    }
+
+    @Benchmark
+    public float fastSin() {
+        return FastMath.sin(angles[next()]);
+    }
+
+    /**
+     * Two atan2 calls and a floating modulo, the angle of every gravity sample before
+     */
+    @Benchmark
+    public double vectorAngle() {
+        int i = next();
+        return gravity.set(xs[i], ys[i]).angle(up);
+    }
+
+    @Benchmark
+    public float vectorFastAngle() {
+        int i = next();
+        return gravity.set(xs[i], ys[i]).fastAngle(up);
+    }
+}
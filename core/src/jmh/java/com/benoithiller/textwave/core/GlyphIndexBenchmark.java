@@ -0,0 +1,88 @@
+package com.benoithiller.textwave.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per frame cost of finding the glyph runs in the visible window. With the index the cost should
+ * follow the screen width and stay flat as the message gets longer, while checking every run
+ * grows with the message, as drawing the whole path used to.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GlyphIndexBenchmark {
+    /**
+     * Scaled width of a typical word, with the space after it
+     */
+    private static final float RUN_WIDTH = 400;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int runs;
+
+    @Param({"720", "1440", "2880"})
+    public float screenWidth;
+
+    private GlyphIndex index;
+    private float offset = 0;
+    private float textWidth;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        index = new GlyphIndex(runs);
+        float left = 0;
+        for (int i = 0; i < runs; i++) {
+            float width = RUN_WIDTH * (0.5f + random.nextFloat());
+            index.add(left, left + width * 0.8f);
+            left += width;
+        }
+        textWidth = left;
+    }
+
+    /**
+     * Move the window along as a sweep would, wrapping at the end of the text
+     */
+    private float nextOffset() {
+        offset += screenWidth / 7;
+        if (offset > textWidth) {
+            offset = 0;
+        }
+        return offset;
+    }
+
+    @Benchmark
+    public int indexed() {
+        float from = nextOffset();
+        float to = from + screenWidth;
+        int visible = 0;
+        for (int i = index.start(from), end = index.end(to); i < end; i++) {
+            if (index.overlaps(i, from, to)) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+
+    @Benchmark
+    public int fullScan() {
+        float from = nextOffset();
+        float to = from + screenWidth;
+        int visible = 0;
+        for (int i = 0; i < index.size(); i++) {
+            if (index.overlaps(i, from, to)) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+}
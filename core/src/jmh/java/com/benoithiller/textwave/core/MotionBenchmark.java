@@ -0,0 +1,149 @@
+package com.benoithiller.textwave.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of each stage between a sensor sample and a scroll offset. Every operation handles a
+ * single sample, so with the gc profiler the normalized allocation rate is bytes per sample.
+ *
+ * Run with ./gradlew :core:jmh, or -PjmhInclude=regex to pick benchmarks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MotionBenchmark {
+    private static final int SAMPLES = 4096;
+    private static final long PERIOD = 5000000L;
+    private static final double GRAVITY = 9.81;
+
+    private final long[] timestamps = new long[SAMPLES];
+    private final float[][] gravity = new float[SAMPLES][3];
+    private final float[][] rotation = new float[SAMPLES][3];
+    private final double[] angles = new double[SAMPLES];
+    private final float[] values = new float[3];
+    private int index = 0;
+    private long lap = 0;
+
+    private ExponentialFilter exponential;
+    private OneEuroFilter oneEuro;
+    private KalmanFilter kalman;
+    private GravityTracker tracker;
+    private GyroFusionEstimator fusion;
+    private OffsetMapping mapping;
+    private MotionCurve curve;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            timestamps[i] = i * PERIOD;
+            double seconds = timestamps[i] / 1e9;
+            double angle = 0.5 * Math.sin(2 * Math.PI * 1.5 * seconds);
+            angles[i] = angle;
+            gravity[i][0] = (float) (-GRAVITY * Math.sin(angle) + random.nextGaussian() * 0.05);
+            gravity[i][1] = (float) (GRAVITY * Math.cos(angle) + random.nextGaussian() * 0.05);
+            gravity[i][2] = (float) (random.nextGaussian() * 0.05);
+            rotation[i][2] = (float) (-0.5 * 2 * Math.PI * 1.5 * Math.cos(2 * Math.PI * 1.5 * seconds));
+        }
+
+        exponential = new ExponentialFilter();
+        oneEuro = new OneEuroFilter();
+        kalman = new KalmanFilter();
+        tracker = new GravityTracker(true, new ExponentialFilter());
+        fusion = new GyroFusionEstimator(true, new ExponentialFilter());
+        mapping = new OffsetMapping();
+        mapping.setDimensions(6000, 1080, OffsetMapping.maxWidth(25, 420));
+        curve = MotionCurves.create(MotionCurves.SINUSOIDAL);
+    }
+
+    /**
+     * Move on to the next sample, keeping the timestamps increasing when the trace wraps around
+     *
+     * @return the timestamp of the sample
+     */
+    private long next(float[][] samples) {
+        index = (index + 1) & (SAMPLES - 1);
+        if (index == 0) {
+            lap += SAMPLES * PERIOD;
+        }
+        System.arraycopy(samples[index], 0, values, 0, 3);
+        return lap + timestamps[index];
+    }
+
+    @Benchmark
+    public float exponentialFilter() {
+        exponential.filter(values, next(gravity));
+        return values[0];
+    }
+
+    @Benchmark
+    public float oneEuroFilter() {
+        oneEuro.filter(values, next(gravity));
+        return values[0];
+    }
+
+    @Benchmark
+    public float kalmanFilter() {
+        kalman.filter(values, next(gravity));
+        return values[0];
+    }
+
+    /**
+     * The original per sample math, building a new vector at every step
+     */
+    @Benchmark
+    public double immutableVectors() {
+        next(gravity);
+        Vector2 up = Vector2.j.mult(Math.signum(values[1]));
+        return new Vector3(values[0], values[1], values[2]).flatten().angle(up);
+    }
+
+    @Benchmark
+    public double gravityTracker() {
+        return tracker.update(values, next(gravity));
+    }
+
+    /**
+     * One gravity and one gyroscope sample, the rates the two sensors usually deliver at
+     */
+    @Benchmark
+    public double gyroFusion() {
+        long timestamp = next(gravity);
+        fusion.onGravity(values, timestamp);
+        System.arraycopy(rotation[index], 0, values, 0, 3);
+        fusion.onGyroscope(values, timestamp + PERIOD / 2);
+        return fusion.getAngle();
+    }
+
+    @Benchmark
+    public float offsetMapping() {
+        index = (index + 1) & (SAMPLES - 1);
+        return mapping.map(angles[index]);
+    }
+
+    /**
+     * Evaluating the curve directly, the way the mapping did before it used a lookup table
+     */
+    @Benchmark
+    public double sinusoidalCurve() {
+        index = (index + 1) & (SAMPLES - 1);
+        return curve.evaluate(angles[index]);
+    }
+
+    /**
+     * Everything the sensor thread and a frame do for one gravity sample
+     */
+    @Benchmark
+    public float pipeline() {
+        return mapping.map(tracker.update(values, next(gravity)));
+    }
+}
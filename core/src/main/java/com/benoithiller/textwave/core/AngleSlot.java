@@ -0,0 +1,101 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Single slot mailbox holding the latest angle from the sensor thread.
+ *
+ * There must only ever be one thread publishing, but any number of threads may read. Readers
+ * never block the writer and never see a half written value: the writer bumps the sequence to an
+ * odd number while it is updating and readers retry if the sequence was odd or changed under them.
+ * Everything is preallocated so neither side allocates.
+ */
+public class AngleSlot {
+    /**
+     * Rough time in nanoseconds between starting to draw a frame and it showing up on screen,
+     * which is how far ahead the angle is predicted.
+     */
+    public static final long PRESENTATION_DELAY = 33000000L;
+
+    /**
+     * The furthest ahead in nanoseconds a reading will be extrapolated. Past this the motion has
+     * probably changed anyway.
+     */
+    public static final long MAX_PREDICTION = 50000000L;
+
+    private volatile int sequence = 0;
+    private volatile double angle;
+    private volatile double velocity;
+    private volatile long timestamp;
+
+    /**
+     * Copy of a published value owned by a single reader.
+     */
+    public static class Reading {
+        public double angle;
+        public double velocity;
+        public long timestamp;
+        private int sequence = 0;
+
+        /**
+         * @return true once anything has been read
+         */
+        public boolean hasValue() {
+            return sequence != 0;
+        }
+
+        /**
+         * Extrapolate the angle to a later time using the angular velocity
+         *
+         * @param time the {@link System#nanoTime()} to predict the angle at
+         * @return the predicted angle
+         */
+        public double predict(long time) {
+            long ahead = Math.min(Math.max(time - timestamp, 0), MAX_PREDICTION);
+            return angle + velocity * ahead / 1e9;
+        }
+    }
+
+    /**
+     * Replace the current value. Must only be called from the single writer thread.
+     *
+     * @param angle     the angle of the device from up
+     * @param velocity  the rate the angle is changing in radians per second
+     * @param timestamp the {@link System#nanoTime()} of the reading
+     */
+    public void publish(double angle, double velocity, long timestamp) {
+        int start = sequence;
+        sequence = start + 1;
+        this.angle = angle;
+        this.velocity = velocity;
+        this.timestamp = timestamp;
+        sequence = start + 2;
+    }
+
+    /**
+     * Copy the latest value into a reading if there is a newer one than it already holds.
+     *
+     * @param reading the reading to update
+     * @return true if the reading was updated
+     */
+    public boolean read(Reading reading) {
+        while (true) {
+            int start = sequence;
+            if (start == reading.sequence) {
+                return false;
+            }
+            if ((start & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            double angle = this.angle;
+            double velocity = this.velocity;
+            long timestamp = this.timestamp;
+            if (sequence == start) {
+                reading.angle = angle;
+                reading.velocity = velocity;
+                reading.timestamp = timestamp;
+                reading.sequence = start;
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Single pole low pass filter. The smoothing factor is derived from the time between readings so
+ * the cutoff stays the same at any sample rate.
+ */
+public class ExponentialFilter implements SensorFilter {
+    /**
+     * Time constant in seconds matching the old fixed smoothing factor of 0.7 per reading at the
+     * 100Hz most devices deliver gravity at.
+     */
+    public static final double DEFAULT_TIME_CONSTANT = 0.0083;
+
+    private final double timeConstant;
+
+    private float[] state;
+    private long lastTimestamp;
+    private boolean initialized = false;
+
+    public ExponentialFilter() {
+        this(DEFAULT_TIME_CONSTANT);
+    }
+
+    /**
+     * @param timeConstant the time constant of the filter in seconds
+     */
+    public ExponentialFilter(double timeConstant) {
+        this.timeConstant = timeConstant;
+    }
+
+    @Override
+    public void filter(float[] values, long timestamp) {
+        if (state == null) {
+            state = new float[values.length];
+        }
+        if (!initialized) {
+            System.arraycopy(values, 0, state, 0, state.length);
+            lastTimestamp = timestamp;
+            initialized = true;
+            return;
+        }
+
+        double dt = (timestamp - lastTimestamp) / 1e9;
+        lastTimestamp = timestamp;
+        if (dt <= 0) {
+            System.arraycopy(state, 0, values, 0, state.length);
+            return;
+        }
+
+        float alpha = (float) (1 - Math.exp(-dt / timeConstant));
+        for (int i = 0; i < state.length; i++) {
+            state[i] = state[i] + alpha * (values[i] - state[i]);
+            values[i] = state[i];
+        }
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
@@ -0,0 +1,88 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Float approximations of the trigonometry used for every sensor sample, for when the full
+ * precision of {@link Math} isn't needed. The errors are far below the noise of the sensors.
+ */
+public final class FastMath {
+    /**
+     * Largest error in radians of {@link #atan2(float, float)}
+     */
+    public static final float ATAN2_ERROR = 1.5e-5f;
+
+    /**
+     * Largest error of {@link #sin(float)} for arguments within ±{@link #SIN_RANGE}
+     */
+    public static final float SIN_ERROR = 5e-6f;
+
+    /**
+     * Range of arguments in radians {@link #sin(float)} keeps to {@link #SIN_ERROR} over
+     */
+    public static final float SIN_RANGE = 10000;
+
+    public static final float PI = (float) Math.PI;
+    public static final float HALF_PI = (float) (Math.PI / 2);
+
+    private static final float INVERSE_TWO_PI = (float) (1 / (2 * Math.PI));
+    // 2π split in two so reducing an argument by whole turns loses as little as possible
+    private static final float TWO_PI_HIGH = 6.28125f;
+    private static final float TWO_PI_LOW = (float) (2 * Math.PI - 6.28125);
+
+    // Abramowitz and Stegun 4.4.49, atan on [0, 1] to within 1e-5
+    private static final float ATAN_1 = 0.9998660f;
+    private static final float ATAN_3 = -0.3302995f;
+    private static final float ATAN_5 = 0.1801410f;
+    private static final float ATAN_7 = -0.0851330f;
+    private static final float ATAN_9 = 0.0208351f;
+
+    // Taylor series of sin on [-π/2, π/2], the first term left out is under 4e-6
+    private static final float SIN_3 = -1f / 6;
+    private static final float SIN_5 = 1f / 120;
+    private static final float SIN_7 = -1f / 5040;
+    private static final float SIN_9 = 1f / 362880;
+
+    private FastMath() {
+    }
+
+    /**
+     * The angle of the point (x, y) from the positive x axis, like {@link Math#atan2(double, double)}
+     * but only for finite arguments.
+     *
+     * @return angle value in the range [-π,π], or 0 if both arguments are 0
+     */
+    public static float atan2(float y, float x) {
+        float absX = Math.abs(x);
+        float absY = Math.abs(y);
+        if (absX == 0 && absY == 0) {
+            return 0;
+        }
+        // work in the first octant where the polynomial is accurate and mirror the result out
+        float ratio = Math.min(absX, absY) / Math.max(absX, absY);
+        float square = ratio * ratio;
+        float angle = ((((ATAN_9 * square + ATAN_7) * square + ATAN_5) * square + ATAN_3) * square + ATAN_1)
+                * ratio;
+        if (absY > absX) {
+            angle = HALF_PI - angle;
+        }
+        if (x < 0) {
+            angle = PI - angle;
+        }
+        return y < 0 ? -angle : angle;
+    }
+
+    /**
+     * Sine of an angle in radians, like {@link Math#sin(double)}
+     */
+    public static float sin(float angle) {
+        int turns = Math.round(angle * INVERSE_TWO_PI);
+        angle = angle - turns * TWO_PI_HIGH - turns * TWO_PI_LOW;
+        // sin(π - x) = sin(x) folds [-π, π] onto [-π/2, π/2]
+        if (angle > HALF_PI) {
+            angle = PI - angle;
+        } else if (angle < -HALF_PI) {
+            angle = -PI - angle;
+        }
+        float square = angle * angle;
+        return (((SIN_9 * square + SIN_7) * square + SIN_5) * square + SIN_3) * square * angle + angle;
+    }
+}
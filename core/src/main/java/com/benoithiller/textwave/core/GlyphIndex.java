@@ -0,0 +1,99 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Index over the horizontal extents of the runs of glyphs making up a message, for finding the
+ * ones that fall in the visible window without looking at the rest.
+ *
+ * The extents must be added in order of their left edge, which is the order the text is laid
+ * out in. Glyphs can overhang their neighbours, so alongside each left edge the index keeps the
+ * furthest right edge seen so far. Both are sorted, so a query is two binary searches followed by
+ * a walk over only the candidates in the window.
+ */
+public class GlyphIndex {
+    private final float[] lefts;
+    private final float[] rights;
+    private final float[] maxRights;
+    private int size = 0;
+
+    /**
+     * @param capacity the number of extents that will be added
+     */
+    public GlyphIndex(int capacity) {
+        lefts = new float[capacity];
+        rights = new float[capacity];
+        maxRights = new float[capacity];
+    }
+
+    /**
+     * Add the next extent
+     *
+     * @param left  the left edge, no less than that of the previous extent
+     * @param right the right edge
+     * @return the position of the extent in the index
+     */
+    public int add(float left, float right) {
+        if (size > 0 && left < lefts[size - 1]) {
+            throw new IllegalArgumentException("Extents must be added in order of their left edge");
+        }
+        lefts[size] = left;
+        rights[size] = right;
+        maxRights[size] = size == 0 ? right : Math.max(maxRights[size - 1], right);
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the first position that could overlap a window starting at from
+     */
+    public int start(float from) {
+        // first position whose running maximum right edge reaches the window
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (maxRights[middle] < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return one past the last position that could overlap a window ending at to
+     */
+    public int end(float to) {
+        // first position that starts after the window
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lefts[middle] <= to) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Check a candidate between {@link #start(float)} and {@link #end(float)}, which may still
+     * end before the window if a wider extent before it overhangs into the window
+     */
+    public boolean overlaps(int position, float from, float to) {
+        return rights[position] >= from && lefts[position] <= to;
+    }
+
+    public float getLeft(int position) {
+        return lefts[position];
+    }
+
+    public float getRight(int position) {
+        return rights[position];
+    }
+}
@@ -0,0 +1,56 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Estimator that only uses the gravity sensor. It makes no attempt to predict motion so the
+ * angle is just the filtered gravity angle.
+ */
+public class GravityEstimator implements MotionEstimator {
+    private final GravityTracker tracker;
+
+    private double angle;
+    private long timestamp;
+
+    /**
+     * @param portrait whether the screen is in portrait orientation
+     * @param filter   the filter used to smooth the gravity readings
+     */
+    public GravityEstimator(boolean portrait, SensorFilter filter) {
+        this(portrait, filter, false);
+    }
+
+    /**
+     * @param portrait whether the screen is in portrait orientation
+     * @param filter   the filter used to smooth the gravity readings
+     * @param fastMath whether to work out the gravity angle with {@link FastMath}
+     */
+    public GravityEstimator(boolean portrait, SensorFilter filter, boolean fastMath) {
+        tracker = new GravityTracker(portrait, filter, fastMath);
+    }
+
+    @Override
+    public boolean onGravity(float[] values, long timestamp) {
+        angle = tracker.update(values, timestamp);
+        this.timestamp = timestamp;
+        return true;
+    }
+
+    @Override
+    public boolean onGyroscope(float[] values, long timestamp) {
+        return false;
+    }
+
+    @Override
+    public double getAngle() {
+        return angle;
+    }
+
+    @Override
+    public double getAngularVelocity() {
+        return 0;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,78 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Turns raw gravity sensor readings into the angle of the device from up.
+ *
+ * This runs for every sensor event so it works entirely on preallocated state and doesn't
+ * allocate once constructed.
+ */
+public class GravityTracker {
+    private final SensorFilter filter;
+    private final boolean fastMath;
+
+    private final float[] gravityValues = new float[3];
+    private final MutableVector3 gravity = new MutableVector3();
+    private final MutableVector2 gravityXY = new MutableVector2();
+    private final MutableVector2 up = new MutableVector2();
+
+    private boolean portrait;
+    private boolean initialized = false;
+
+    /**
+     * @param portrait whether the screen is in portrait orientation
+     * @param filter   the filter used to smooth the readings
+     */
+    public GravityTracker(boolean portrait, SensorFilter filter) {
+        this(portrait, filter, false);
+    }
+
+    /**
+     * @param portrait whether the screen is in portrait orientation
+     * @param filter   the filter used to smooth the readings
+     * @param fastMath whether to work out the angle with {@link FastMath} instead of {@link Math}
+     */
+    public GravityTracker(boolean portrait, SensorFilter filter, boolean fastMath) {
+        this.portrait = portrait;
+        this.filter = filter;
+        this.fastMath = fastMath;
+    }
+
+    /**
+     * Forget the filtered gravity and the up direction so they are picked again from the next
+     * reading.
+     *
+     * @param portrait whether the screen is in portrait orientation
+     */
+    public void reset(boolean portrait) {
+        this.portrait = portrait;
+        filter.reset();
+        initialized = false;
+    }
+
+    /**
+     * Filter a new gravity reading and compute the angle of the device.
+     *
+     * @param values    the x, y and z gravity values from the sensor
+     * @param timestamp the time of the reading in nanoseconds
+     * @return the angle from up in the range [-π,π]
+     */
+    public double update(float[] values, long timestamp) {
+        System.arraycopy(values, 0, gravityValues, 0, gravityValues.length);
+        filter.filter(gravityValues, timestamp);
+        if (!initialized) {
+            if (portrait) {
+                up.set(Vector2.j).mult(Math.signum(gravityValues[1]));
+            } else {
+                up.set(Vector2.i).mult(Math.signum(gravityValues[0]));
+            }
+            initialized = true;
+        }
+
+        gravity.set(gravityValues).flatten(gravityXY);
+        return fastMath ? gravityXY.fastAngle(up) : gravityXY.angle(up);
+    }
+
+    public float[] getGravity() {
+        return gravityValues;
+    }
+}
@@ -0,0 +1,120 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Estimator that integrates the gyroscope's rotation rate around the screen normal and uses the
+ * gravity angle to correct the drift, a complementary filter.
+ *
+ * The gyroscope reacts immediately where the gravity sensor lags, and it gives the angular
+ * velocity needed to extrapolate the angle forward to when a frame will actually be shown.
+ */
+public class GyroFusionEstimator implements MotionEstimator {
+    /**
+     * Time constant in seconds of the gravity correction. Shorter trusts gravity more, longer
+     * trusts the gyroscope more.
+     */
+    private static final double TIME_CONSTANT = 0.25;
+
+    /**
+     * Gaps between readings longer than this in nanoseconds aren't integrated over, as the
+     * sensor was most likely paused.
+     */
+    private static final long MAX_STEP = 100000000L;
+
+    private static final double NANOS = 1e9;
+
+    private final GravityTracker tracker;
+
+    private boolean initialized = false;
+    private double angle;
+    private double velocity = 0;
+    private long timestamp;
+    private long gravityTimestamp;
+    private long gyroTimestamp = 0;
+
+    /**
+     * @param portrait whether the screen is in portrait orientation
+     * @param filter   the filter used to smooth the gravity readings
+     */
+    public GyroFusionEstimator(boolean portrait, SensorFilter filter) {
+        this(portrait, filter, false);
+    }
+
+    /**
+     * @param portrait whether the screen is in portrait orientation
+     * @param filter   the filter used to smooth the gravity readings
+     * @param fastMath whether to work out the gravity angle with {@link FastMath}
+     */
+    public GyroFusionEstimator(boolean portrait, SensorFilter filter, boolean fastMath) {
+        tracker = new GravityTracker(portrait, filter, fastMath);
+    }
+
+    @Override
+    public boolean onGravity(float[] values, long timestamp) {
+        double measured = tracker.update(values, timestamp);
+        if (!initialized) {
+            angle = measured;
+            this.timestamp = timestamp;
+            gravityTimestamp = timestamp;
+            initialized = true;
+            return true;
+        }
+
+        long step = timestamp - gravityTimestamp;
+        gravityTimestamp = timestamp;
+        if (step <= 0 || step > MAX_STEP) {
+            angle = measured;
+        } else {
+            double dt = step / NANOS;
+            double weight = dt / (TIME_CONSTANT + dt);
+            angle = wrap(angle + weight * wrap(measured - angle));
+        }
+        if (timestamp > this.timestamp) {
+            this.timestamp = timestamp;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean onGyroscope(float[] values, long timestamp) {
+        // turning the device counter-clockwise turns gravity clockwise relative to the screen
+        double rate = -values[2];
+        long step = timestamp - gyroTimestamp;
+        gyroTimestamp = timestamp;
+        if (!initialized) {
+            velocity = rate;
+            return false;
+        }
+
+        if (step > 0 && step <= MAX_STEP) {
+            angle = wrap(angle + (velocity + rate) / 2 * (step / NANOS));
+        }
+        velocity = rate;
+        if (timestamp > this.timestamp) {
+            this.timestamp = timestamp;
+        }
+        return true;
+    }
+
+    @Override
+    public double getAngle() {
+        return angle;
+    }
+
+    @Override
+    public double getAngularVelocity() {
+        return velocity;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    private static double wrap(double angle) {
+        double wrapped = (angle + Math.PI) % (Math.PI * 2);
+        if (wrapped < 0) {
+            wrapped += Math.PI * 2;
+        }
+        return wrapped - Math.PI;
+    }
+}
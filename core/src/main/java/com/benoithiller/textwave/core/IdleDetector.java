@@ -0,0 +1,157 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Decides when the device is being held still between waves, from the variance of the gravity
+ * readings and the size of the gyroscope readings.
+ *
+ * Going idle takes a stretch of low variance, but a single reading that is far enough from the
+ * running mean, or a single fast gyroscope reading, is enough to wake up again. This runs for
+ * every sensor event so it doesn't allocate.
+ */
+public class IdleDetector {
+    /**
+     * Variance of the gravity readings in (m/s²)² below which the device counts as still
+     */
+    public static final double IDLE_VARIANCE = 0.01;
+
+    /**
+     * Distance in m/s² of a gravity reading from the running mean that counts as motion
+     */
+    public static final double WAKE_DEVIATION = 0.4;
+
+    /**
+     * Rotation rate in radians per second that counts as motion
+     */
+    public static final double WAKE_RATE = 0.3;
+
+    /**
+     * How long in nanoseconds the device has to be still before it counts as idle
+     */
+    public static final long IDLE_DELAY = 1000000000L;
+
+    /**
+     * Time constant in seconds of the running mean and variance
+     */
+    private static final double TIME_CONSTANT = 0.2;
+
+    private static final double NANOS = 1e9;
+
+    private final double idleVariance;
+    private final double wakeDeviationSquared;
+    private final double wakeRate;
+    private final long idleDelay;
+
+    private final double[] mean = new double[3];
+    private double variance = 0;
+    private boolean initialized = false;
+    private long lastTimestamp;
+    private long stillSince;
+    private boolean idle = false;
+
+    public IdleDetector() {
+        this(IDLE_VARIANCE, WAKE_DEVIATION, WAKE_RATE, IDLE_DELAY);
+    }
+
+    /**
+     * @param idleVariance  variance of the gravity readings below which the device is still
+     * @param wakeDeviation distance of a reading from the mean that counts as motion
+     * @param wakeRate      rotation rate that counts as motion
+     * @param idleDelay     how long the device has to be still to go idle in nanoseconds
+     */
+    public IdleDetector(double idleVariance, double wakeDeviation, double wakeRate, long idleDelay) {
+        this.idleVariance = idleVariance;
+        this.wakeDeviationSquared = wakeDeviation * wakeDeviation;
+        this.wakeRate = wakeRate;
+        this.idleDelay = idleDelay;
+    }
+
+    /**
+     * Feed a gravity reading
+     *
+     * @param values    the x, y and z gravity values
+     * @param timestamp the sensor timestamp of the reading in nanoseconds
+     * @return true if the device went idle or woke up
+     */
+    public boolean onGravity(float[] values, long timestamp) {
+        if (!initialized) {
+            for (int i = 0; i < 3; i++) {
+                mean[i] = values[i];
+            }
+            variance = 0;
+            lastTimestamp = timestamp;
+            stillSince = timestamp;
+            initialized = true;
+            return false;
+        }
+
+        double deviation = 0;
+        for (int i = 0; i < 3; i++) {
+            double difference = values[i] - mean[i];
+            deviation += difference * difference;
+        }
+
+        // the weight keeps the time constant the same whatever rate the sensor is running at
+        double dt = Math.max(timestamp - lastTimestamp, 0) / NANOS;
+        lastTimestamp = timestamp;
+        double weight = dt / (TIME_CONSTANT + dt);
+        for (int i = 0; i < 3; i++) {
+            mean[i] += weight * (values[i] - mean[i]);
+        }
+        variance += weight * (deviation - variance);
+
+        if (deviation > wakeDeviationSquared || variance > idleVariance) {
+            return moved(timestamp);
+        }
+        if (!idle && timestamp - stillSince >= idleDelay) {
+            idle = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Feed a gyroscope reading
+     *
+     * @param values    the x, y and z rotation rates in radians per second
+     * @param timestamp the sensor timestamp of the reading in nanoseconds
+     * @return true if the device woke up
+     */
+    public boolean onGyroscope(float[] values, long timestamp) {
+        double rate = values[0] * values[0] + values[1] * values[1] + values[2] * values[2];
+        if (rate > wakeRate * wakeRate) {
+            return moved(timestamp);
+        }
+        return false;
+    }
+
+    private boolean moved(long timestamp) {
+        stillSince = timestamp;
+        if (idle) {
+            idle = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the device has been still for long enough to stop updating
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * @return the running variance of the gravity readings in (m/s²)²
+     */
+    public double getVariance() {
+        return variance;
+    }
+
+    /**
+     * Forget all readings and start out awake
+     */
+    public void reset() {
+        initialized = false;
+        idle = false;
+    }
+}
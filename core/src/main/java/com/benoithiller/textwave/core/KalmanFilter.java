@@ -0,0 +1,106 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Kalman filter run independently on each axis, tracking the value and its rate of change with a
+ * constant velocity model.
+ *
+ * Because it models the velocity the estimate doesn't trail behind a steadily moving signal the
+ * way a plain low pass does. The noise is scaled by the time between readings so the result
+ * doesn't depend on the sample rate.
+ */
+public class KalmanFilter implements SensorFilter {
+    /**
+     * Spectral density of the unmodelled acceleration of each axis, in (m/s²)² per s³. Waving
+     * changes direction quickly so this is large.
+     */
+    public static final double DEFAULT_PROCESS_NOISE = 10000;
+
+    /**
+     * Variance of a single reading in (m/s²)², the gravity sensor is only off by a few hundredths
+     */
+    public static final double DEFAULT_MEASUREMENT_NOISE = 0.0025;
+
+    private final double processNoise;
+    private final double measurementNoise;
+
+    private double[] position;
+    private double[] velocity;
+    // covariance of the position and velocity, stored per axis
+    private double[] pp;
+    private double[] pv;
+    private double[] vv;
+    private long lastTimestamp;
+    private boolean initialized = false;
+
+    public KalmanFilter() {
+        this(DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    /**
+     * @param processNoise     spectral density of the unmodelled acceleration
+     * @param measurementNoise variance of a single reading
+     */
+    public KalmanFilter(double processNoise, double measurementNoise) {
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+    }
+
+    @Override
+    public void filter(float[] values, long timestamp) {
+        if (position == null) {
+            position = new double[values.length];
+            velocity = new double[values.length];
+            pp = new double[values.length];
+            pv = new double[values.length];
+            vv = new double[values.length];
+        }
+        if (!initialized) {
+            for (int i = 0; i < position.length; i++) {
+                position[i] = values[i];
+                velocity[i] = 0;
+                pp[i] = measurementNoise;
+                pv[i] = 0;
+                vv[i] = processNoise;
+            }
+            lastTimestamp = timestamp;
+            initialized = true;
+            return;
+        }
+
+        double dt = (timestamp - lastTimestamp) / 1e9;
+        lastTimestamp = timestamp;
+        if (dt < 0) {
+            dt = 0;
+        }
+
+        double dt2 = dt * dt;
+        for (int i = 0; i < position.length; i++) {
+            // predict
+            position[i] += velocity[i] * dt;
+            pp[i] += dt * (2 * pv[i] + dt * vv[i]) + processNoise * dt2 * dt / 3;
+            pv[i] += dt * vv[i] + processNoise * dt2 / 2;
+            vv[i] += processNoise * dt;
+
+            // update
+            double innovation = values[i] - position[i];
+            double variance = pp[i] + measurementNoise;
+            double positionGain = pp[i] / variance;
+            double velocityGain = pv[i] / variance;
+            position[i] += positionGain * innovation;
+            velocity[i] += velocityGain * innovation;
+
+            double oldPp = pp[i];
+            double oldPv = pv[i];
+            pp[i] = (1 - positionGain) * oldPp;
+            pv[i] = (1 - positionGain) * oldPv;
+            vv[i] -= velocityGain * oldPv;
+
+            values[i] = (float) position[i];
+        }
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
@@ -0,0 +1,121 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Histogram of durations with buckets that grow with the value, so a fixed amount of memory
+ * covers anything from microseconds to minutes at about 12% resolution.
+ *
+ * Recording never allocates. There must only be one thread recording; reads from other threads
+ * may be slightly out of date but are fine for reporting.
+ */
+public class LatencyHistogram {
+    /**
+     * Sub buckets per power of two
+     */
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private volatile long count = 0;
+    private long total = 0;
+    private long max = 0;
+    private long last = 0;
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the smallest value in microseconds that lands in the bucket
+     */
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * Record a single duration
+     *
+     * @param nanos the duration in nanoseconds, negative values count as zero
+     */
+    public void record(long nanos) {
+        long micros = Math.max(nanos, 0) / 1000;
+        counts[bucket(micros)]++;
+        total += micros;
+        max = Math.max(max, micros);
+        last = micros;
+        count = count + 1;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean duration in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMean() {
+        long count = this.count;
+        return count == 0 ? 0 : total * 1000 / count;
+    }
+
+    /**
+     * @return the longest duration in nanoseconds
+     */
+    public long getMax() {
+        return max * 1000;
+    }
+
+    /**
+     * @return the most recent duration in nanoseconds
+     */
+    public long getLast() {
+        return last * 1000;
+    }
+
+    /**
+     * Find the duration below which the given fraction of the recorded durations fall
+     *
+     * @param fraction the fraction from 0 to 1, 0.99 for the 99th percentile
+     * @return the upper end of the bucket holding the percentile in nanoseconds, or 0 if nothing
+     * was recorded
+     */
+    public long getPercentile(double fraction) {
+        long count = this.count;
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= Math.max(target, 1)) {
+                long upper = bucket + 1 < BUCKETS ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE / 1000;
+                return Math.min(upper, max) * 1000;
+            }
+        }
+        return max * 1000;
+    }
+
+    /**
+     * Forget everything recorded so far. Must be called from the recording thread.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts[bucket] = 0;
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+        last = 0;
+    }
+}
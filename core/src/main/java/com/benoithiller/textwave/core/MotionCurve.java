@@ -0,0 +1,21 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * The shape of the mapping from the angle of the device to the position in the text.
+ *
+ * Curves are only evaluated when a {@link MotionProfile} is built, so they can be as expensive as
+ * they like. The result is used through a lookup table, so every curve costs the same per frame.
+ */
+public interface MotionCurve {
+    /**
+     * @param position how far through the wave the device is, from -1 to 1
+     * @return how far through the text to scroll, from -1 at the start to 1 at the end
+     */
+    double evaluate(double position);
+
+    /**
+     * The largest absolute second derivative of the curve between -1 and 1, which bounds the error
+     * of the lookup table
+     */
+    double getCurvatureBound();
+}
@@ -0,0 +1,81 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Lookup of the motion curves by the names used in the settings.
+ */
+public final class MotionCurves {
+    public static final String LINEAR = "linear";
+    public static final String SINUSOIDAL = "sinusoidal";
+    public static final String EXTRA_SMOOTH = "extra_smooth";
+
+    /**
+     * How much of a quarter sine wave the default curve follows, the original curve of the app
+     */
+    public static final double DEFAULT_ADJUSTMENT = 0.4;
+
+    private static final double EXTRA_SMOOTH_ADJUSTMENT = 0.8;
+
+    private static final MotionCurve LINEAR_CURVE = new MotionCurve() {
+        @Override
+        public double evaluate(double position) {
+            return position;
+        }
+
+        @Override
+        public double getCurvatureBound() {
+            return 0;
+        }
+    };
+
+    private MotionCurves() {
+    }
+
+    /**
+     * A stretch of a sine wave around zero, so the text moves fastest through the middle and slows
+     * down towards the ends.
+     */
+    public static final class Sinusoidal implements MotionCurve {
+        private final double frequency;
+        private final double scale;
+
+        /**
+         * @param adjustment how much of a quarter sine wave to follow, above 0 and up to 1. The
+         *                   larger it is the more the ends are slowed down.
+         */
+        public Sinusoidal(double adjustment) {
+            if (!(adjustment > 0 && adjustment <= 1)) {
+                throw new IllegalArgumentException("adjustment out of range: " + adjustment);
+            }
+            frequency = Math.PI / 2 * adjustment;
+            scale = 1 / Math.sin(frequency);
+        }
+
+        @Override
+        public double evaluate(double position) {
+            return Math.sin(frequency * position) * scale;
+        }
+
+        @Override
+        public double getCurvatureBound() {
+            return frequency * frequency;
+        }
+    }
+
+    /**
+     * @param name the name of the curve, falls back to the sinusoidal curve if unknown
+     * @return the curve
+     */
+    public static MotionCurve create(String name) {
+        if (name == null) {
+            return new Sinusoidal(DEFAULT_ADJUSTMENT);
+        }
+        switch (name) {
+            case LINEAR:
+                return LINEAR_CURVE;
+            case EXTRA_SMOOTH:
+                return new Sinusoidal(EXTRA_SMOOTH_ADJUSTMENT);
+            default:
+                return new Sinusoidal(DEFAULT_ADJUSTMENT);
+        }
+    }
+}
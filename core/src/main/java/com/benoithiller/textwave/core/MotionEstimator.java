@@ -0,0 +1,40 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Estimates the angle of the device from up, and how fast it is changing, from the raw sensor
+ * events. Implementations are fed from the sensor thread and must not allocate per event.
+ */
+public interface MotionEstimator {
+    /**
+     * Feed a gravity reading
+     *
+     * @param values    the x, y and z gravity values
+     * @param timestamp the sensor timestamp of the reading in nanoseconds
+     * @return true if the estimate changed
+     */
+    boolean onGravity(float[] values, long timestamp);
+
+    /**
+     * Feed a gyroscope reading
+     *
+     * @param values    the x, y and z rotation rates in radians per second
+     * @param timestamp the sensor timestamp of the reading in nanoseconds
+     * @return true if the estimate changed
+     */
+    boolean onGyroscope(float[] values, long timestamp);
+
+    /**
+     * @return the angle from up in radians
+     */
+    double getAngle();
+
+    /**
+     * @return the rate the angle is changing in radians per second
+     */
+    double getAngularVelocity();
+
+    /**
+     * @return the sensor timestamp the estimate is for in nanoseconds
+     */
+    long getTimestamp();
+}
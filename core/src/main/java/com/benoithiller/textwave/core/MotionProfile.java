@@ -0,0 +1,97 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Everything needed to turn an angle into a scroll offset for one size of text, worked out ahead
+ * of time. Built again only when the text, the window or the arm length change, so mapping an
+ * angle is a multiply, a clamp and a lookup in a table of offsets.
+ *
+ * The table samples the curve at {@link #TABLE_SIZE} even steps across the wave and interpolates
+ * linearly between them. For a curve whose second derivative is at most M, that is off the exact
+ * curve by at most textWidth * M / (4 * TABLE_SIZE²) pixels, which {@link #getErrorBound()}
+ * reports. For the default sinusoidal curve that is under 0.01 pixels for 4000 pixels of text,
+ * and a linear curve is exact up to float rounding.
+ */
+public final class MotionProfile {
+    /**
+     * Number of steps in the table across a whole wave
+     */
+    public static final int TABLE_SIZE = 256;
+
+    private static final int HALF_SIZE = TABLE_SIZE / 2;
+
+    private final MotionCurve curve;
+    private final float textWidth;
+    private final float boundsWidth;
+    private final float maxWidth;
+
+    private final double inverseMaxAngle;
+    private final double maxTextAngle;
+    private final float[] offsets = new float[TABLE_SIZE + 1];
+
+    /**
+     * @param curve       the shape of the mapping
+     * @param textWidth   the full width of the text
+     * @param boundsWidth the width of the visible window
+     * @param maxWidth    the width of the arc covered by a full wave
+     */
+    public MotionProfile(MotionCurve curve, float textWidth, float boundsWidth, float maxWidth) {
+        this.curve = curve;
+        this.textWidth = textWidth;
+        this.boundsWidth = boundsWidth;
+        this.maxWidth = maxWidth;
+
+        double maxAngle = OffsetMapping.MAX_DEGREEWIDTH * (textWidth + boundsWidth) / maxWidth;
+        inverseMaxAngle = 1 / maxAngle;
+        maxTextAngle = (maxAngle - (OffsetMapping.MAX_DEGREEWIDTH * boundsWidth / maxWidth)) / maxAngle;
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            double percent = curve.evaluate((double) (i - HALF_SIZE) / HALF_SIZE) / 2 + 0.5;
+            offsets[i] = (float) (percent * textWidth - boundsWidth / 2);
+        }
+    }
+
+    /**
+     * @return whether the profile was built from the same inputs
+     */
+    public boolean matches(MotionCurve curve, float textWidth, float boundsWidth, float maxWidth) {
+        return this.curve == curve && this.textWidth == textWidth && this.boundsWidth == boundsWidth
+                && this.maxWidth == maxWidth;
+    }
+
+    /**
+     * @param angle the angle of the device from up
+     * @return how far through the wave the angle is, from -1 to 1
+     */
+    public double position(double angle) {
+        return Math.max(Math.min(1, angle * inverseMaxAngle), -1);
+    }
+
+    /**
+     * @param position how far through the wave the device is, from {@link #position(double)}
+     * @return the offset of the visible window into the text
+     */
+    public float offset(double position) {
+        double step = (position + 1) * HALF_SIZE;
+        int index = Math.min((int) step, TABLE_SIZE - 1);
+        float fraction = (float) (step - index);
+        return offsets[index] + fraction * (offsets[index + 1] - offsets[index]);
+    }
+
+    /**
+     * Which end of the text a position is past, if any
+     *
+     * @return -1 or 1 for either end, 0 when the text still fills the window
+     */
+    public int edge(double position) {
+        if (Math.abs(position) < maxTextAngle) {
+            return 0;
+        }
+        return (int) Math.signum(position);
+    }
+
+    /**
+     * @return the most {@link #offset(double)} can be off the exact curve in pixels
+     */
+    public double getErrorBound() {
+        return textWidth * curve.getCurvatureBound() / (4.0 * TABLE_SIZE * TABLE_SIZE);
+    }
+}
@@ -0,0 +1,85 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Mutable 2D Vector for hot paths where allocating a new {@link Vector2} per operation is too
+ * expensive. All operations modify this vector in place and return it for chaining.
+ */
+public class MutableVector2 {
+    public float x;
+    public float y;
+
+    public MutableVector2() {
+    }
+
+    public MutableVector2(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public MutableVector2 set(float x, float y) {
+        this.x = x;
+        this.y = y;
+        return this;
+    }
+
+    public MutableVector2 set(Vector2 other) {
+        return set(other.x, other.y);
+    }
+
+    public MutableVector2 add(MutableVector2 other) {
+        x += other.x;
+        y += other.y;
+        return this;
+    }
+
+    public MutableVector2 sub(MutableVector2 other) {
+        x -= other.x;
+        y -= other.y;
+        return this;
+    }
+
+    public MutableVector2 mult(float scalar) {
+        x *= scalar;
+        y *= scalar;
+        return this;
+    }
+
+    public float dot(MutableVector2 other) {
+        return x * other.x + y * other.y;
+    }
+
+    public double magnitude() {
+        return Math.sqrt(dot(this));
+    }
+
+    /**
+     * The angle with respect to the positive x axis
+     *
+     * @return angle value in the range (-π,π]
+     */
+    public double angle() {
+        return Math.atan2(y, x);
+    }
+
+    /**
+     * The number of degrees clockwise the other angle is from this one
+     *
+     * @param other the angle to compare ours to
+     * @return angle value in the range [-π,π]
+     */
+    public double angle(MutableVector2 other) {
+        double angle = angle() - other.angle();
+        return ((angle + Math.PI) % (Math.PI * 2)) - Math.PI;
+    }
+
+    /**
+     * The same angle as {@link #angle(MutableVector2)} to within {@link FastMath#ATAN2_ERROR},
+     * from a single {@link FastMath#atan2(float, float)} of the cross and dot products
+     *
+     * @param other the angle to compare ours to
+     * @return angle value in the range [-π,π]
+     */
+    public float fastAngle(MutableVector2 other) {
+        return FastMath.atan2(other.x * y - other.y * x, dot(other));
+    }
+}
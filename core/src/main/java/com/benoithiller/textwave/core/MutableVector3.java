@@ -0,0 +1,83 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Mutable 3D Vector for hot paths where allocating a new {@link Vector3} per operation is too
+ * expensive. All operations modify this vector in place and return it for chaining.
+ */
+public class MutableVector3 {
+    public float x;
+    public float y;
+    public float z;
+
+    public MutableVector3() {
+    }
+
+    public MutableVector3(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public MutableVector3 set(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * Set this vector from the first three entries of an array, such as sensor values.
+     *
+     * @param values array of at least three components
+     */
+    public MutableVector3 set(float[] values) {
+        return set(values[0], values[1], values[2]);
+    }
+
+    public MutableVector3 set(Vector3 other) {
+        return set(other.x, other.y, other.z);
+    }
+
+    public MutableVector3 add(MutableVector3 other) {
+        x += other.x;
+        y += other.y;
+        z += other.z;
+        return this;
+    }
+
+    public MutableVector3 sub(MutableVector3 other) {
+        x -= other.x;
+        y -= other.y;
+        z -= other.z;
+        return this;
+    }
+
+    public MutableVector3 mult(float scalar) {
+        x *= scalar;
+        y *= scalar;
+        z *= scalar;
+        return this;
+    }
+
+    public float dot(MutableVector3 other) {
+        return x * other.x + y * other.y + z * other.z;
+    }
+
+    public double magnitude() {
+        return Math.sqrt(dot(this));
+    }
+
+    public double angle(MutableVector3 other) {
+        return Math.acos(dot(other) / (magnitude() * other.magnitude()));
+    }
+
+    /**
+     * Drop the z component into an existing 2D vector
+     *
+     * @param out the vector to write into
+     * @return out
+     */
+    public MutableVector2 flatten(MutableVector2 out) {
+        return out.set(x, y);
+    }
+}
@@ -0,0 +1,86 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * The curve from the angle of the device to the scroll offset of the message.
+ *
+ * Kept free of any Android classes so recorded sensor traces can be replayed through it off the
+ * device. The work that only depends on the dimensions is kept in a {@link MotionProfile}, which
+ * is only rebuilt when they change, so the dimensions can be set before every mapping.
+ */
+public class OffsetMapping {
+    public static final double MAX_DEGREEWIDTH = Math.PI / 5;
+
+    private MotionCurve curve = MotionCurves.create(MotionCurves.SINUSOIDAL);
+    private float textWidth;
+    private float boundsWidth;
+    private float maxWidth = Float.NaN;
+
+    private MotionProfile profile;
+    private double position;
+
+    /**
+     * @param textWidth   the full width of the text
+     * @param boundsWidth the width of the visible window
+     * @param maxWidth    the width of the arc covered by a full wave
+     */
+    public void setDimensions(float textWidth, float boundsWidth, float maxWidth) {
+        this.textWidth = textWidth;
+        this.boundsWidth = boundsWidth;
+        this.maxWidth = maxWidth;
+    }
+
+    /**
+     * @param curve the shape of the mapping, see {@link MotionCurves}
+     */
+    public void setCurve(MotionCurve curve) {
+        this.curve = curve;
+    }
+
+    /**
+     * @param armLength the length of the arm in inches
+     * @param dpi       the horizontal dots per inch of the screen
+     * @return the width of the arc covered by a full wave
+     */
+    public static float maxWidth(double armLength, float dpi) {
+        return (float) (armLength * dpi * MAX_DEGREEWIDTH * 2);
+    }
+
+    /**
+     * @return the profile for the current dimensions, or null if they aren't known yet
+     */
+    public MotionProfile getProfile() {
+        if (Float.isNaN(maxWidth)) {
+            return null;
+        }
+        if (profile == null || !profile.matches(curve, textWidth, boundsWidth, maxWidth)) {
+            profile = new MotionProfile(curve, textWidth, boundsWidth, maxWidth);
+        }
+        return profile;
+    }
+
+    /**
+     * @param angle the angle of the device from up
+     * @return the offset of the visible window into the text
+     */
+    public float map(double angle) {
+        MotionProfile profile = getProfile();
+        if (profile == null) {
+            position = 0;
+            return 0;
+        }
+        position = profile.position(angle);
+        return profile.offset(position);
+    }
+
+    /**
+     * Which end of the text the last mapped angle went past, if any
+     *
+     * @return -1 or 1 for either end, 0 when the text still fills the window
+     */
+    public int getEdge() {
+        if (profile == null || Float.isNaN(maxWidth)) {
+            return 0;
+        }
+        return profile.edge(position);
+    }
+}
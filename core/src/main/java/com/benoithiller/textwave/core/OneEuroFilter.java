@@ -0,0 +1,81 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * The 1€ filter from Casiez, Roussel and Vogel: a low pass filter whose cutoff rises with the
+ * speed of the signal. Slow movements get smoothed heavily to remove jitter while fast swings
+ * are let through with little lag.
+ */
+public class OneEuroFilter implements SensorFilter {
+    // defaults picked with FilterTest, the cutoff needs to climb quickly during a wave
+    public static final double DEFAULT_MIN_CUTOFF = 2.0;
+    public static final double DEFAULT_BETA = 20;
+    public static final double DEFAULT_DERIVATIVE_CUTOFF = 1.0;
+
+    private final double minCutoff;
+    private final double beta;
+    private final double derivativeCutoff;
+
+    private float[] value;
+    private float[] derivative;
+    private long lastTimestamp;
+    private boolean initialized = false;
+
+    public OneEuroFilter() {
+        this(DEFAULT_MIN_CUTOFF, DEFAULT_BETA, DEFAULT_DERIVATIVE_CUTOFF);
+    }
+
+    /**
+     * @param minCutoff        the cutoff frequency in Hz when the signal is still
+     * @param beta             how much the cutoff rises with the speed of the signal
+     * @param derivativeCutoff the cutoff frequency in Hz used to smooth the speed
+     */
+    public OneEuroFilter(double minCutoff, double beta, double derivativeCutoff) {
+        this.minCutoff = minCutoff;
+        this.beta = beta;
+        this.derivativeCutoff = derivativeCutoff;
+    }
+
+    private static double alpha(double cutoff, double dt) {
+        double tau = 1 / (2 * Math.PI * cutoff);
+        return 1 / (1 + tau / dt);
+    }
+
+    @Override
+    public void filter(float[] values, long timestamp) {
+        if (value == null) {
+            value = new float[values.length];
+            derivative = new float[values.length];
+        }
+        if (!initialized) {
+            System.arraycopy(values, 0, value, 0, value.length);
+            for (int i = 0; i < derivative.length; i++) {
+                derivative[i] = 0;
+            }
+            lastTimestamp = timestamp;
+            initialized = true;
+            return;
+        }
+
+        double dt = (timestamp - lastTimestamp) / 1e9;
+        lastTimestamp = timestamp;
+        if (dt <= 0) {
+            System.arraycopy(value, 0, values, 0, value.length);
+            return;
+        }
+
+        double derivativeAlpha = alpha(derivativeCutoff, dt);
+        for (int i = 0; i < value.length; i++) {
+            double rawDerivative = (values[i] - value[i]) / dt;
+            derivative[i] += derivativeAlpha * (rawDerivative - derivative[i]);
+
+            double cutoff = minCutoff + beta * Math.abs(derivative[i]);
+            value[i] += alpha(cutoff, dt) * (values[i] - value[i]);
+            values[i] = value[i];
+        }
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
@@ -0,0 +1,130 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Trades drawing quality for time when frames take too long to draw. A stuttering wave looks far
+ * worse than slightly soft text, so the resolution of the drawing drops in steps, and as a last
+ * resort anti-aliasing is switched off.
+ *
+ * Quality drops as soon as the smoothed frame time goes over {@link #DEGRADE_LOAD} of the budget,
+ * but only comes back after a long stretch under {@link #RECOVER_LOAD}. That is low enough that
+ * the frames at the level above should still fit, and every time a recovery has to be undone the
+ * stretch needed doubles, so the quality doesn't keep flipping between two levels.
+ */
+public class QualityController {
+    /**
+     * Fraction of the budget the smoothed frame time has to go over to lower the quality
+     */
+    public static final double DEGRADE_LOAD = 0.75;
+
+    /**
+     * Fraction of the budget the smoothed frame time has to stay under to raise the quality.
+     * Raising the resolution from half to three quarters costs 2.25 times as much, which still
+     * comes in under {@link #DEGRADE_LOAD}.
+     */
+    public static final double RECOVER_LOAD = 0.3;
+
+    /**
+     * Frames ignored after a change while the caches settle at the new quality
+     */
+    public static final int SETTLE_FRAMES = 10;
+
+    /**
+     * Frames with headroom needed before the first recovery
+     */
+    public static final int RECOVER_FRAMES = 120;
+
+    private static final int MAX_RECOVER_FRAMES = 16 * RECOVER_FRAMES;
+
+    /**
+     * Weight of each frame in the smoothed frame time
+     */
+    private static final double SMOOTHING = 0.125;
+
+    private static final float[] RESOLUTIONS = {1f, 0.75f, 0.5f, 0.5f};
+    private static final boolean[] ANTI_ALIAS = {true, true, true, false};
+
+    private final long budget;
+
+    private int level = 0;
+    private double smoothed;
+    private int settling = SETTLE_FRAMES;
+    private int headroomFrames = 0;
+    private int recoverFrames = RECOVER_FRAMES;
+    // frames since the last recovery, while it might still have to be undone, or -1
+    private int sinceRecovery = -1;
+
+    /**
+     * @param budget the time in nanoseconds a frame can take, usually the vsync period
+     */
+    public QualityController(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Record how long a frame took to draw at the current quality
+     *
+     * @param nanos the time the frame took in nanoseconds
+     * @return true if the quality changed
+     */
+    public boolean onFrame(long nanos) {
+        if (settling > 0) {
+            settling--;
+            smoothed = nanos;
+            return false;
+        }
+        smoothed += (nanos - smoothed) * SMOOTHING;
+
+        if (smoothed > DEGRADE_LOAD * budget && level < RESOLUTIONS.length - 1) {
+            if (sinceRecovery >= 0) {
+                // the level above didn't fit after all, so wait longer before trying it again
+                recoverFrames = Math.min(recoverFrames * 2, MAX_RECOVER_FRAMES);
+            }
+            sinceRecovery = -1;
+            setLevel(level + 1);
+            return true;
+        }
+        if (sinceRecovery >= 0 && ++sinceRecovery >= recoverFrames) {
+            // held for as long as it took to recover, so it fits
+            sinceRecovery = -1;
+        }
+
+        if (smoothed < RECOVER_LOAD * budget && level > 0) {
+            headroomFrames++;
+            if (headroomFrames >= recoverFrames) {
+                sinceRecovery = 0;
+                setLevel(level - 1);
+                return true;
+            }
+        } else {
+            headroomFrames = 0;
+        }
+        return false;
+    }
+
+    private void setLevel(int level) {
+        this.level = level;
+        settling = SETTLE_FRAMES;
+        headroomFrames = 0;
+    }
+
+    /**
+     * @return 0 at full quality, higher as the quality is lowered
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the resolution to draw at, as a fraction of the full resolution
+     */
+    public float getResolution() {
+        return RESOLUTIONS[level];
+    }
+
+    /**
+     * @return whether the text should be anti-aliased
+     */
+    public boolean isAntiAlias() {
+        return ANTI_ALIAS[level];
+    }
+}
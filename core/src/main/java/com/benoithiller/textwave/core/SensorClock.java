@@ -0,0 +1,25 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Converts sensor event timestamps to the {@link System#nanoTime()} time base used for frames.
+ *
+ * Depending on the device, sensor timestamps come from either the monotonic or the boot time
+ * clock. The offset between the two is estimated as the smallest seen difference between when an
+ * event was received and its timestamp, which is the real offset plus the shortest delivery delay.
+ */
+public class SensorClock {
+    private long offset = Long.MAX_VALUE;
+
+    /**
+     * @param timestamp  the timestamp of a sensor event
+     * @param receivedAt the {@link System#nanoTime()} the event was received at
+     * @return the timestamp in the {@link System#nanoTime()} time base
+     */
+    public long toNanoTime(long timestamp, long receivedAt) {
+        long difference = receivedAt - timestamp;
+        if (difference < offset) {
+            offset = difference;
+        }
+        return timestamp + offset;
+    }
+}
@@ -0,0 +1,23 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Smoothing stage for multi-axis sensor readings. Filters take the time between readings into
+ * account so their behaviour doesn't depend on the rate the sensor happens to deliver at.
+ *
+ * Implementations keep their state per axis and must not allocate after the first reading.
+ */
+public interface SensorFilter {
+    /**
+     * Filter a reading in place. The first reading after construction or a reset passes through
+     * unchanged.
+     *
+     * @param values    the reading to filter, overwritten with the filtered values
+     * @param timestamp the time of the reading in nanoseconds
+     */
+    void filter(float[] values, long timestamp);
+
+    /**
+     * Forget all previous readings
+     */
+    void reset();
+}
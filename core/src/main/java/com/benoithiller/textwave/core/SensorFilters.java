@@ -0,0 +1,31 @@
+package com.benoithiller.textwave.core;
+
+/**
+ * Lookup of the sensor filters by the names used in the settings.
+ */
+public final class SensorFilters {
+    public static final String EXPONENTIAL = "exponential";
+    public static final String ONE_EURO = "one_euro";
+    public static final String KALMAN = "kalman";
+
+    private SensorFilters() {
+    }
+
+    /**
+     * @param name the name of the filter, falls back to the exponential filter if unknown
+     * @return a new filter
+     */
+    public static SensorFilter create(String name) {
+        if (name == null) {
+            return new ExponentialFilter();
+        }
+        switch (name) {
+            case ONE_EURO:
+                return new OneEuroFilter();
+            case KALMAN:
+                return new KalmanFilter();
+            default:
+                return new ExponentialFilter();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.benoithiller.textwave.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compact binary recording of raw sensor events so a wave can be replayed off the device.
+ *
+ * The file starts with a magic number and format version, followed by fixed size records of
+ * the sensor, the event timestamp, the three values and the screen orientation. All numbers are
+ * big endian.
+ */
+public final class SensorTrace {
+    public static final int MAGIC = 0x54575452;
+    public static final int VERSION = 1;
+
+    public static final int GRAVITY = 0;
+    public static final int GYROSCOPE = 1;
+
+    /**
+     * Size of a single event record in bytes
+     */
+    public static final int RECORD_SIZE = 1 + 8 + 3 * 4 + 1;
+
+    private SensorTrace() {
+    }
+
+    /**
+     * A single recorded event. Reused between reads.
+     */
+    public static class Event {
+        public int sensor;
+        public long timestamp;
+        public final float[] values = new float[3];
+        public boolean portrait;
+    }
+
+    public static class Writer implements Closeable {
+        private final DataOutputStream output;
+
+        public Writer(OutputStream output) throws IOException {
+            this.output = new DataOutputStream(new BufferedOutputStream(output));
+            this.output.writeInt(MAGIC);
+            this.output.writeShort(VERSION);
+        }
+
+        /**
+         * Append an event to the trace
+         *
+         * @param sensor    {@link #GRAVITY} or {@link #GYROSCOPE}
+         * @param timestamp the sensor timestamp of the event
+         * @param values    the event values, only the first three are written
+         * @param portrait  whether the screen was in portrait orientation
+         */
+        public void write(int sensor, long timestamp, float[] values, boolean portrait) throws IOException {
+            output.writeByte(sensor);
+            output.writeLong(timestamp);
+            output.writeFloat(values[0]);
+            output.writeFloat(values[1]);
+            output.writeFloat(values[2]);
+            output.writeBoolean(portrait);
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+    public static class Reader implements Closeable {
+        private final DataInputStream input;
+
+        public Reader(InputStream input) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(input));
+            if (this.input.readInt() != MAGIC) {
+                throw new IOException("Not a sensor trace");
+            }
+            int version = this.input.readUnsignedShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sensor trace version " + version);
+            }
+        }
+
+        /**
+         * Read the next event
+         *
+         * @param event the event to read into
+         * @return false at the end of the trace
+         */
+        public boolean next(Event event) throws IOException {
+            int sensor = input.read();
+            if (sensor < 0) {
+                return false;
+            }
+            try {
+                event.sensor = sensor;
+                event.timestamp = input.readLong();
+                event.values[0] = input.readFloat();
+                event.values[1] = input.readFloat();
+                event.values[2] = input.readFloat();
+                event.portrait = input.readBoolean();
+            } catch (EOFException e) {
+                // the recording was cut off mid event
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
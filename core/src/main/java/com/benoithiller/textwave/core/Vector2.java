@@ -1,4 +1,4 @@
-package com.benoithiller.textwave;
+package com.benoithiller.textwave.core;
 
 /**
  * Simple 2D Vector math implementation.
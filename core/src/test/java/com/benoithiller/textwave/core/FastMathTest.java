@@ -0,0 +1,49 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FastMathTest {
+    private static final int STEPS = 1000000;
+
+    @Test
+    public void atan2WithinErrorBound() {
+        float[] radii = {1e-3f, 1, 9.81f, 1e4f};
+        double worst = 0;
+        for (int i = 0; i <= STEPS; i++) {
+            double angle = -Math.PI + 2 * Math.PI * i / STEPS;
+            for (float radius : radii) {
+                float x = (float) (radius * Math.cos(angle));
+                float y = (float) (radius * Math.sin(angle));
+                worst = Math.max(worst, Math.abs(FastMath.atan2(y, x) - Math.atan2(y, x)));
+            }
+        }
+        assertTrue("worst error " + worst, worst <= FastMath.ATAN2_ERROR);
+    }
+
+    @Test
+    public void atan2Axes() {
+        assertEquals(0, FastMath.atan2(0, 1), 0);
+        assertEquals(Math.PI / 2, FastMath.atan2(1, 0), FastMath.ATAN2_ERROR);
+        assertEquals(Math.PI, FastMath.atan2(0, -1), FastMath.ATAN2_ERROR);
+        assertEquals(-Math.PI / 2, FastMath.atan2(-1, 0), FastMath.ATAN2_ERROR);
+        assertEquals(0, FastMath.atan2(0, 0), 0);
+    }
+
+    @Test
+    public void sinWithinErrorBound() {
+        double worst = 0;
+        for (int i = -STEPS; i <= STEPS; i++) {
+            float angle = FastMath.SIN_RANGE * i / STEPS;
+            worst = Math.max(worst, Math.abs(FastMath.sin(angle) - Math.sin(angle)));
+        }
+        // densely around the turns, where the folding and the range reduction meet
+        for (int i = -STEPS; i <= STEPS; i++) {
+            float angle = (float) (4 * Math.PI * i / STEPS);
+            worst = Math.max(worst, Math.abs(FastMath.sin(angle) - Math.sin(angle)));
+        }
+        assertTrue("worst error " + worst, worst <= FastMath.SIN_ERROR);
+    }
+}
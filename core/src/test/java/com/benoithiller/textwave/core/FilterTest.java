@@ -0,0 +1,96 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the lag and leftover noise of the sensor filters on a trace of the phone being waved
+ */
+public class FilterTest {
+    private static final int SAMPLES = 4000;
+    private static final long PERIOD = 5000000L;
+    private static final double GRAVITY = 9.81;
+    private static final int MAX_SHIFT = 40;
+
+    private final long[] timestamps = new long[SAMPLES];
+    private final float[][] clean = new float[SAMPLES][3];
+    private final float[][] noisy = new float[SAMPLES][3];
+
+    public FilterTest() {
+        // twenty seconds of waving at a drifting speed and width with jittery delivery, like the
+        // gravity sensor on a typical phone
+        Random random = new Random(42);
+        long time = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            time += PERIOD + (long) (random.nextGaussian() * PERIOD / 5);
+            timestamps[i] = time;
+            double seconds = time / 1e9;
+            double amplitude = 0.45 + 0.15 * Math.sin(seconds * 0.7);
+            double frequency = 1.5 + 0.5 * Math.sin(seconds * 0.3);
+            double angle = amplitude * Math.sin(2 * Math.PI * frequency * seconds);
+            clean[i][0] = (float) (-GRAVITY * Math.sin(angle));
+            clean[i][1] = (float) (GRAVITY * Math.cos(angle));
+            clean[i][2] = 0.5f;
+            for (int axis = 0; axis < 3; axis++) {
+                noisy[i][axis] = clean[i][axis] + (float) (random.nextGaussian() * 0.05);
+            }
+        }
+    }
+
+    private float[] run(SensorFilter filter) {
+        float[] output = new float[SAMPLES];
+        float[] values = new float[3];
+        filter.reset();
+        for (int i = 0; i < SAMPLES; i++) {
+            System.arraycopy(noisy[i], 0, values, 0, 3);
+            filter.filter(values, timestamps[i]);
+            output[i] = values[0];
+        }
+        return output;
+    }
+
+    private double rms(float[] output, int shift) {
+        double sum = 0;
+        int count = 0;
+        for (int i = MAX_SHIFT; i < SAMPLES; i++) {
+            double error = output[i] - clean[i - shift][0];
+            sum += error * error;
+            count++;
+        }
+        return Math.sqrt(sum / count);
+    }
+
+    private void check(String name, SensorFilter filter) {
+        float[] output = run(filter);
+        int bestShift = 0;
+        double bestError = Double.MAX_VALUE;
+        for (int shift = 0; shift <= MAX_SHIFT; shift++) {
+            double error = rms(output, shift);
+            if (error < bestError) {
+                bestError = error;
+                bestShift = shift;
+            }
+        }
+        double lag = bestShift * PERIOD / 1e6;
+        assertTrue(name + " lags by " + lag + "ms", lag < 50);
+        assertTrue(name + " leaves " + bestError + " noise", bestError < 0.1);
+    }
+
+    @Test
+    public void exponential() {
+        check("exponential", new ExponentialFilter());
+    }
+
+    @Test
+    public void oneEuro() {
+        check("one euro", new OneEuroFilter());
+    }
+
+    @Test
+    public void kalman() {
+        check("kalman", new KalmanFilter());
+    }
+}
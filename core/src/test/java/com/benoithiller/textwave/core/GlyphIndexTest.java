@@ -0,0 +1,67 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GlyphIndexTest {
+    /**
+     * Build an index of glyph like extents, with the odd wide one overhanging its neighbours
+     */
+    private static GlyphIndex build(int size, Random random) {
+        GlyphIndex index = new GlyphIndex(size);
+        float left = 0;
+        for (int i = 0; i < size; i++) {
+            float width = random.nextInt(10) == 0 ? 200 : 10 + random.nextFloat() * 40;
+            index.add(left - random.nextFloat() * 5, left + width);
+            left += 30;
+        }
+        return index;
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(7);
+        GlyphIndex index = build(2000, random);
+        for (int query = 0; query < 500; query++) {
+            float from = random.nextFloat() * 62000 - 1000;
+            float to = from + random.nextFloat() * 2000;
+
+            int expected = 0;
+            for (int i = 0; i < index.size(); i++) {
+                if (index.overlaps(i, from, to)) {
+                    expected++;
+                }
+            }
+
+            int found = 0;
+            int start = index.start(from);
+            int end = index.end(to);
+            for (int i = start; i < end; i++) {
+                if (index.overlaps(i, from, to)) {
+                    found++;
+                }
+            }
+            assertEquals(expected, found);
+            // the candidates only cover the window plus the longest overhang
+            assertTrue(end - start <= (to - from + 400) / 30 + 2);
+        }
+    }
+
+    @Test
+    public void empty() {
+        GlyphIndex index = new GlyphIndex(0);
+        assertEquals(0, index.start(0));
+        assertEquals(0, index.end(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfOrder() {
+        GlyphIndex index = new GlyphIndex(2);
+        index.add(10, 20);
+        index.add(5, 20);
+    }
+}
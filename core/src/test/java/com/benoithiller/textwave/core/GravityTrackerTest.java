@@ -0,0 +1,75 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class GravityTrackerTest {
+    private static final int EVENTS = 100000;
+
+    @Test
+    public void angleMatchesImmutableMath() {
+        GravityTracker tracker = new GravityTracker(true, new ExponentialFilter());
+        float[] values = {3f, 9f, 1f};
+        double angle = tracker.update(values, 0);
+
+        Vector2 up = Vector2.j.mult(Math.signum(values[1]));
+        double expected = new Vector3(values[0], values[1], values[2]).flatten().angle(up);
+        assertEquals(expected, angle, 1e-9);
+    }
+
+    @Test
+    public void fastMathWithinErrorBound() {
+        GravityTracker exact = new GravityTracker(true, new ExponentialFilter());
+        GravityTracker fast = new GravityTracker(true, new ExponentialFilter(), true);
+        float[] values = new float[3];
+        for (int i = 0; i < 10000; i++) {
+            double difference = feed(fast, values, i) - feed(exact, values, i);
+            // the readings go all the way round, where either side of ±π is the same angle
+            difference = Math.IEEEremainder(difference, 2 * Math.PI);
+            assertEquals(0, difference, FastMath.ATAN2_ERROR + 1e-6);
+        }
+    }
+
+    @Test
+    public void updateDoesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        GravityTracker tracker = new GravityTracker(true, new ExponentialFilter());
+        float[] values = new float[3];
+        double sink = 0;
+
+        // warm up so the interpreter and JIT have settled
+        for (int i = 0; i < EVENTS; i++) {
+            sink += feed(tracker, values, i);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long overhead = allocations.getThreadAllocatedBytes(thread);
+        overhead = allocations.getThreadAllocatedBytes(thread) - overhead;
+
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < EVENTS; i++) {
+            sink += feed(tracker, values, i);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before - overhead;
+
+        assertEquals("bytes allocated over " + EVENTS + " events (" + sink + ")", 0, allocated);
+    }
+
+    private static double feed(GravityTracker tracker, float[] values, int i) {
+        double phase = i * 0.01;
+        values[0] = (float) (9.81 * Math.sin(phase));
+        values[1] = (float) (9.81 * Math.cos(phase));
+        values[2] = 0.3f;
+        return tracker.update(values, i * 10000000L);
+    }
+}
@@ -0,0 +1,84 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GyroFusionEstimatorTest {
+    private static final double GRAVITY = 9.81;
+    private static final long GYRO_PERIOD = 2500000L;
+    private static final double AMPLITUDE = 0.5;
+    private static final double FREQUENCY = 1.5;
+
+    /**
+     * The angle of a device waved back and forth at the given time
+     */
+    private static double angle(long time) {
+        return AMPLITUDE * Math.sin(2 * Math.PI * FREQUENCY * time / 1e9);
+    }
+
+    private static double rate(long time) {
+        return AMPLITUDE * 2 * Math.PI * FREQUENCY * Math.cos(2 * Math.PI * FREQUENCY * time / 1e9);
+    }
+
+    private static void gravity(float[] values, long time) {
+        double angle = angle(time);
+        values[0] = (float) (-GRAVITY * Math.sin(angle));
+        values[1] = (float) (GRAVITY * Math.cos(angle));
+        values[2] = 0;
+    }
+
+    /**
+     * Run both estimators over two seconds of waving and return the worst error of each
+     */
+    private static double[] worstErrors(long predictAhead) {
+        MotionEstimator fused = new GyroFusionEstimator(true, new ExponentialFilter());
+        MotionEstimator gravityOnly = new GravityEstimator(true, new ExponentialFilter());
+        float[] gravity = new float[3];
+        float[] gyro = new float[3];
+        double[] worst = new double[2];
+
+        for (long time = 0; time < 2000000000L; time += GYRO_PERIOD) {
+            if ((time / GYRO_PERIOD) % 2 == 0) {
+                gravity(gravity, time);
+                fused.onGravity(gravity, time);
+                gravityOnly.onGravity(gravity, time);
+            }
+            gyro[2] = (float) -rate(time);
+            fused.onGyroscope(gyro, time);
+
+            if (time > 500000000L) {
+                double target = angle(time + predictAhead);
+                double fusedAngle = fused.getAngle() + fused.getAngularVelocity() * predictAhead / 1e9;
+                double gravityAngle = gravityOnly.getAngle();
+                worst[0] = Math.max(worst[0], Math.abs(fusedAngle - target));
+                worst[1] = Math.max(worst[1], Math.abs(gravityAngle - target));
+            }
+        }
+        return worst;
+    }
+
+    @Test
+    public void tracksAngleAtLeastAsWellAsGravity() {
+        double[] worst = worstErrors(0);
+        assertTrue("fused " + worst[0] + " gravity " + worst[1], worst[0] <= worst[1]);
+        assertEquals(0, worst[0], 0.01);
+    }
+
+    @Test
+    public void predictionReducesLatencyError() {
+        double[] worst = worstErrors(AngleSlot.PRESENTATION_DELAY);
+        assertTrue("fused " + worst[0] + " gravity " + worst[1], worst[0] < worst[1] / 2);
+    }
+
+    @Test
+    public void velocityFollowsGyroscope() {
+        MotionEstimator fused = new GyroFusionEstimator(true, new ExponentialFilter());
+        float[] gravity = new float[3];
+        gravity(gravity, 0);
+        fused.onGravity(gravity, 0);
+        fused.onGyroscope(new float[]{0, 0, 2f}, GYRO_PERIOD);
+        assertEquals(-2, fused.getAngularVelocity(), 1e-9);
+    }
+}
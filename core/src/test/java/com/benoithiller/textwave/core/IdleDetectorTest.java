@@ -0,0 +1,100 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdleDetectorTest {
+    private static final long MILLIS = 1000000L;
+    private static final long FAST = 5 * MILLIS;
+    private static final long SLOW = 100 * MILLIS;
+
+    private final Random random = new Random(1);
+    private final float[] values = new float[3];
+    private long timestamp = 0;
+
+    /**
+     * Feed readings of a device held upright with a little sensor noise
+     *
+     * @return whether any of them changed the state
+     */
+    private boolean feedStill(IdleDetector detector, long period, long duration) {
+        boolean changed = false;
+        for (long end = timestamp + duration; timestamp < end; timestamp += period) {
+            values[0] = (float) (random.nextGaussian() * 0.02);
+            values[1] = (float) (9.81 + random.nextGaussian() * 0.02);
+            values[2] = (float) (random.nextGaussian() * 0.02);
+            changed |= detector.onGravity(values, timestamp);
+        }
+        return changed;
+    }
+
+    private boolean feedTilted(IdleDetector detector, double angle) {
+        values[0] = (float) (9.81 * Math.sin(angle));
+        values[1] = (float) (9.81 * Math.cos(angle));
+        values[2] = 0;
+        timestamp += FAST;
+        return detector.onGravity(values, timestamp);
+    }
+
+    @Test
+    public void idleAfterHoldingStill() {
+        IdleDetector detector = new IdleDetector();
+        feedStill(detector, FAST, IdleDetector.IDLE_DELAY - 100 * MILLIS);
+        assertFalse(detector.isIdle());
+        assertTrue(feedStill(detector, FAST, 200 * MILLIS));
+        assertTrue(detector.isIdle());
+    }
+
+    @Test
+    public void wakesOnFirstMovingReading() {
+        IdleDetector detector = new IdleDetector();
+        feedStill(detector, FAST, 2 * IdleDetector.IDLE_DELAY);
+        assertTrue(detector.isIdle());
+        // a tenth of a radian, the start of a wave
+        assertTrue(feedTilted(detector, 0.1));
+        assertFalse(detector.isIdle());
+    }
+
+    @Test
+    public void wakesOnGyroscope() {
+        IdleDetector detector = new IdleDetector();
+        feedStill(detector, FAST, 2 * IdleDetector.IDLE_DELAY);
+        assertTrue(detector.isIdle());
+        assertFalse(detector.onGyroscope(new float[]{0.01f, 0, 0.05f}, timestamp));
+        assertTrue(detector.isIdle());
+        assertTrue(detector.onGyroscope(new float[]{0, 0, 1f}, timestamp));
+        assertFalse(detector.isIdle());
+    }
+
+    @Test
+    public void stillIdleAtSlowRate() {
+        IdleDetector detector = new IdleDetector();
+        feedStill(detector, FAST, 2 * IdleDetector.IDLE_DELAY);
+        assertTrue(detector.isIdle());
+        assertFalse(feedStill(detector, SLOW, 10 * IdleDetector.IDLE_DELAY));
+        assertTrue(detector.isIdle());
+    }
+
+    @Test
+    public void neverIdleWhileWaving() {
+        IdleDetector detector = new IdleDetector();
+        for (int i = 0; i < 2000; i++) {
+            // a wave a second of half a radian either side
+            feedTilted(detector, 0.5 * Math.sin(2 * Math.PI * i * FAST / 1e9));
+            assertFalse(detector.isIdle());
+        }
+    }
+
+    @Test
+    public void resetWakes() {
+        IdleDetector detector = new IdleDetector();
+        feedStill(detector, FAST, 2 * IdleDetector.IDLE_DELAY);
+        assertTrue(detector.isIdle());
+        detector.reset();
+        assertFalse(detector.isIdle());
+    }
+}
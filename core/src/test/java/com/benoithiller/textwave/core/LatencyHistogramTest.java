@@ -0,0 +1,58 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void percentilesWithinResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MILLIS / 10);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(100 * MILLIS, histogram.getMax());
+        assertEquals(50050 * 1000, histogram.getMean());
+
+        long[] expected = {50 * MILLIS, 90 * MILLIS, 99 * MILLIS};
+        double[] fractions = {0.5, 0.9, 0.99};
+        for (int i = 0; i < fractions.length; i++) {
+            long percentile = histogram.getPercentile(fractions[i]);
+            assertTrue(fractions[i] + ": " + percentile, percentile >= expected[i]);
+            assertTrue(fractions[i] + ": " + percentile, percentile <= expected[i] * 1.13);
+        }
+        assertEquals(100 * MILLIS, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void extremes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(Long.MAX_VALUE / 1000 * 1000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5 * MILLIS);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        histogram.record(MILLIS);
+        assertEquals(MILLIS, histogram.getPercentile(0.5), MILLIS * 0.13);
+    }
+}
@@ -0,0 +1,76 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MotionProfileTest {
+    private static final float TEXT_WIDTH = 6000;
+    private static final float BOUNDS_WIDTH = 1080;
+    private static final float MAX_WIDTH = OffsetMapping.maxWidth(25, 420);
+
+    /**
+     * The offset straight from the curve, as the mapping used to work it out for every angle
+     */
+    private static double exact(MotionCurve curve, double position) {
+        return (curve.evaluate(position) / 2 + 0.5) * TEXT_WIDTH - BOUNDS_WIDTH / 2;
+    }
+
+    private static void assertWithinBound(MotionCurve curve) {
+        MotionProfile profile = new MotionProfile(curve, TEXT_WIDTH, BOUNDS_WIDTH, MAX_WIDTH);
+        // float rounding of the table entries on top of the interpolation error
+        double bound = profile.getErrorBound() + Math.ulp(TEXT_WIDTH);
+        for (int i = -10000; i <= 10000; i++) {
+            double position = i / 10000.0;
+            double error = Math.abs(profile.offset(position) - exact(curve, position));
+            assertTrue(position + ": " + error, error <= bound);
+        }
+    }
+
+    @Test
+    public void sinusoidalWithinErrorBound() {
+        assertWithinBound(MotionCurves.create(MotionCurves.SINUSOIDAL));
+        assertWithinBound(MotionCurves.create(MotionCurves.EXTRA_SMOOTH));
+        assertTrue(new MotionProfile(MotionCurves.create(MotionCurves.SINUSOIDAL), TEXT_WIDTH,
+                BOUNDS_WIDTH, MAX_WIDTH).getErrorBound() < 0.05);
+    }
+
+    @Test
+    public void linearWithinErrorBound() {
+        assertWithinBound(MotionCurves.create(MotionCurves.LINEAR));
+    }
+
+    @Test
+    public void clampsPastEitherEnd() {
+        MotionProfile profile = new MotionProfile(MotionCurves.create(MotionCurves.SINUSOIDAL),
+                TEXT_WIDTH, BOUNDS_WIDTH, MAX_WIDTH);
+        assertEquals(-BOUNDS_WIDTH / 2, profile.offset(profile.position(-10)), 0.01);
+        assertEquals(TEXT_WIDTH - BOUNDS_WIDTH / 2, profile.offset(profile.position(10)), 0.01);
+        assertEquals(-1, profile.edge(profile.position(-10)));
+        assertEquals(1, profile.edge(profile.position(10)));
+        assertEquals(0, profile.edge(profile.position(0)));
+    }
+
+    @Test
+    public void rebuiltOnlyWhenDimensionsChange() {
+        OffsetMapping mapping = new OffsetMapping();
+        assertNull(mapping.getProfile());
+        assertEquals(0, mapping.map(0.3), 0);
+
+        mapping.setDimensions(TEXT_WIDTH, BOUNDS_WIDTH, MAX_WIDTH);
+        MotionProfile profile = mapping.getProfile();
+        mapping.map(0.3);
+        mapping.setDimensions(TEXT_WIDTH, BOUNDS_WIDTH, MAX_WIDTH);
+        assertSame(profile, mapping.getProfile());
+
+        mapping.setDimensions(TEXT_WIDTH + 1, BOUNDS_WIDTH, MAX_WIDTH);
+        assertNotSame(profile, mapping.getProfile());
+        profile = mapping.getProfile();
+        mapping.setCurve(MotionCurves.create(MotionCurves.LINEAR));
+        assertNotSame(profile, mapping.getProfile());
+    }
+}
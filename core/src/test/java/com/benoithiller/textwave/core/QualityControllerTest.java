@@ -0,0 +1,64 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QualityControllerTest {
+    private static final long BUDGET = 16666667L;
+
+    /**
+     * Feed frames whose time scales with the number of pixels drawn, and a third more with
+     * anti-aliasing
+     *
+     * @param fullCost the time a frame takes at full quality
+     * @return how many times the quality changed
+     */
+    private static int feed(QualityController controller, long fullCost, int frames) {
+        int changes = 0;
+        for (int i = 0; i < frames; i++) {
+            float resolution = controller.getResolution();
+            double cost = fullCost * resolution * resolution;
+            if (controller.isAntiAlias()) {
+                cost *= 4.0 / 3;
+            }
+            if (controller.onFrame((long) cost)) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    @Test
+    public void degradesUntilFramesFit() {
+        QualityController controller = new QualityController(BUDGET);
+        feed(controller, 2 * BUDGET, 200);
+        assertEquals(0.5f, controller.getResolution(), 0);
+        assertTrue(controller.isAntiAlias());
+
+        feed(controller, 4 * BUDGET, 200);
+        assertEquals(3, controller.getLevel());
+    }
+
+    @Test
+    public void recoversOnceThereIsHeadroom() {
+        QualityController controller = new QualityController(BUDGET);
+        feed(controller, 2 * BUDGET, 200);
+        feed(controller, BUDGET / 10, QualityController.RECOVER_FRAMES / 2);
+        assertEquals("recovered before a stretch of headroom", 2, controller.getLevel());
+
+        feed(controller, BUDGET / 10, 10 * QualityController.RECOVER_FRAMES);
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void settlesAtEveryLoad() {
+        for (long fullCost = BUDGET / 4; fullCost < 4 * BUDGET; fullCost += BUDGET / 20) {
+            QualityController controller = new QualityController(BUDGET);
+            feed(controller, fullCost, 1000);
+            int changes = feed(controller, fullCost, 60 * 60 * 10);
+            assertTrue("changed " + changes + " times in ten minutes at " + fullCost, changes <= 10);
+        }
+    }
+}
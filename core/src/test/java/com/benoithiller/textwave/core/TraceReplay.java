@@ -0,0 +1,250 @@
+package com.benoithiller.textwave.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Replays a recorded sensor trace through the same filter, angle and offset stages the scroller
+ * uses, timing each stage separately.
+ *
+ * The whole trace is loaded up front so reading the file isn't counted, and every run over the
+ * same trace with the same settings produces the same offsets. Replaying it through each filter
+ * compares what they cost per event and how far they make the text trail the unfiltered motion.
+ */
+public class TraceReplay {
+    private static final float DEFAULT_TEXT_WIDTH = 6000;
+    private static final float DEFAULT_BOUNDS_WIDTH = 1080;
+    private static final double DEFAULT_ARM_LENGTH = 25;
+    private static final float DEFAULT_DPI = 420;
+
+    /**
+     * The furthest the offsets are shifted looking for the lag, about half a second of events
+     */
+    private static final int MAX_LAG_EVENTS = 200;
+
+    private static final String[] FILTERS = {SensorFilters.EXPONENTIAL, SensorFilters.ONE_EURO,
+            SensorFilters.KALMAN};
+
+    private int count = 0;
+    private int[] sensors = new int[1024];
+    private long[] timestamps = new long[1024];
+    private float[][] values = new float[1024][];
+    private boolean portrait = true;
+    private boolean hasGyroscope = false;
+
+    private float textWidth = DEFAULT_TEXT_WIDTH;
+    private float boundsWidth = DEFAULT_BOUNDS_WIDTH;
+    private float maxWidth = OffsetMapping.maxWidth(DEFAULT_ARM_LENGTH, DEFAULT_DPI);
+
+    /**
+     * The output of a single replay
+     */
+    public static class Result {
+        public final long[] timestamps;
+        public final float[] offsets;
+        public long filterNanos;
+        public long estimatorNanos;
+        public long mappingNanos;
+
+        private Result(int size) {
+            timestamps = new long[size];
+            offsets = new float[size];
+        }
+
+        /**
+         * How far the offsets trail those of another replay of the same trace, found as the shift
+         * that lines the two up best
+         *
+         * @param reference a replay of the same trace, usually without any filtering
+         * @return the lag in nanoseconds
+         */
+        public long lagBehind(Result reference) {
+            int events = offsets.length;
+            if (events < 2) {
+                return 0;
+            }
+            int bestShift = 0;
+            double bestError = Double.MAX_VALUE;
+            for (int shift = 0; shift <= MAX_LAG_EVENTS && shift < events; shift++) {
+                double sum = 0;
+                for (int i = shift; i < events; i++) {
+                    double error = offsets[i] - reference.offsets[i - shift];
+                    sum += error * error;
+                }
+                double error = sum / (events - shift);
+                if (error < bestError) {
+                    bestError = error;
+                    bestShift = shift;
+                }
+            }
+            return bestShift * (timestamps[events - 1] - timestamps[0]) / (events - 1);
+        }
+
+        /**
+         * Print the per stage timings
+         */
+        public void writeTimings(PrintStream output) {
+            int events = Math.max(offsets.length, 1);
+            output.printf("%-10s %10.1f ns/event%n", "filter", (double) filterNanos / events);
+            output.printf("%-10s %10.1f ns/event%n", "estimator", (double) estimatorNanos / events);
+            output.printf("%-10s %10.1f ns/event%n", "mapping", (double) mappingNanos / events);
+        }
+
+        /**
+         * Print the offset series as timestamp, offset pairs
+         */
+        public void writeCsv(PrintStream output) {
+            output.println("timestamp,offset");
+            for (int i = 0; i < offsets.length; i++) {
+                output.println(timestamps[i] + "," + offsets[i]);
+            }
+        }
+    }
+
+    /**
+     * Passes readings through untouched, so the estimator only sees what the replayed filter
+     * produced.
+     */
+    private static class IdentityFilter implements SensorFilter {
+        @Override
+        public void filter(float[] values, long timestamp) {
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+
+    public TraceReplay(InputStream input) throws IOException {
+        SensorTrace.Reader reader = new SensorTrace.Reader(input);
+        try {
+            SensorTrace.Event event = new SensorTrace.Event();
+            while (reader.next(event)) {
+                add(event);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void add(SensorTrace.Event event) {
+        if (count == sensors.length) {
+            sensors = Arrays.copyOf(sensors, count * 2);
+            timestamps = Arrays.copyOf(timestamps, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        if (count == 0) {
+            portrait = event.portrait;
+        }
+        hasGyroscope |= event.sensor == SensorTrace.GYROSCOPE;
+        sensors[count] = event.sensor;
+        timestamps[count] = event.timestamp;
+        values[count] = event.values.clone();
+        count++;
+    }
+
+    /**
+     * @param textWidth   the full width of the text
+     * @param boundsWidth the width of the visible window
+     * @param maxWidth    the width of the arc covered by a full wave
+     */
+    public void setDimensions(float textWidth, float boundsWidth, float maxWidth) {
+        this.textWidth = textWidth;
+        this.boundsWidth = boundsWidth;
+        this.maxWidth = maxWidth;
+    }
+
+    /**
+     * @return the number of events in the trace
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Run the trace through the pipeline
+     *
+     * @param filter the filter applied to the gravity readings
+     * @return the offset after every event and the time spent in each stage
+     */
+    public Result replay(SensorFilter filter) {
+        filter.reset();
+        MotionEstimator estimator = hasGyroscope
+                ? new GyroFusionEstimator(portrait, new IdentityFilter())
+                : new GravityEstimator(portrait, new IdentityFilter());
+        OffsetMapping mapping = new OffsetMapping();
+        mapping.setDimensions(textWidth, boundsWidth, maxWidth);
+
+        Result result = new Result(count);
+        float[] reading = new float[3];
+        float offset = 0;
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(values[i], 0, reading, 0, 3);
+            long timestamp = timestamps[i];
+
+            long start = System.nanoTime();
+            boolean gravity = sensors[i] == SensorTrace.GRAVITY;
+            if (gravity) {
+                filter.filter(reading, timestamp);
+            }
+            long filtered = System.nanoTime();
+            boolean changed = gravity
+                    ? estimator.onGravity(reading, timestamp)
+                    : estimator.onGyroscope(reading, timestamp);
+            long estimated = System.nanoTime();
+            if (changed) {
+                offset = mapping.map(estimator.getAngle());
+            }
+            long mapped = System.nanoTime();
+
+            result.filterNanos += filtered - start;
+            result.estimatorNanos += estimated - filtered;
+            result.mappingNanos += mapped - estimated;
+            result.timestamps[i] = timestamp;
+            result.offsets[i] = offset;
+        }
+        return result;
+    }
+
+    /**
+     * Print the cost per event of each filter and how far behind the unfiltered offsets it leaves
+     * the text. Each filter is replayed twice and only the second is timed, so the first warms up
+     * the JIT.
+     */
+    public void compareFilters(PrintStream output) {
+        Result unfiltered = replay(new IdentityFilter());
+        int events = Math.max(count, 1);
+        output.printf("%-12s %10s %8s%n", "filter", "ns/event", "lag ms");
+        for (String name : FILTERS) {
+            replay(SensorFilters.create(name));
+            Result result = replay(SensorFilters.create(name));
+            output.printf("%-12s %10.1f %8.1f%n", name, (double) result.filterNanos / events,
+                    result.lagBehind(unfiltered) / 1e6);
+        }
+    }
+
+    /**
+     * Replay a trace file, printing the timings to stderr and the offsets as CSV to stdout, or
+     * with compare in place of a filter the comparison of the filters. Run with
+     * ./gradlew :core:replayTrace -Ptrace=trace-file [-Pfilter=filter].
+     *
+     * Usage: TraceReplay trace-file [filter|compare]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReplay trace-file [exponential|one_euro|kalman|compare]");
+            System.exit(1);
+        }
+        TraceReplay replay = new TraceReplay(new FileInputStream(args[0]));
+        if (args.length > 1 && args[1].equals("compare")) {
+            replay.compareFilters(System.out);
+            return;
+        }
+        Result result = replay.replay(SensorFilters.create(args.length > 1 ? args[1] : null));
+        result.writeTimings(System.err);
+        result.writeCsv(System.out);
+    }
+}
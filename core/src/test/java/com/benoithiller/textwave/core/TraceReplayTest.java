@@ -0,0 +1,124 @@
+package com.benoithiller.textwave.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays traces through the offset pipeline. A trace recorded on a phone can be replayed as
+ * well by running the tests with -Ptrace=path/to/trace.
+ */
+public class TraceReplayTest {
+    private static final double GRAVITY = 9.81;
+    private static final long GRAVITY_PERIOD = 5000000L;
+    private static final long GYRO_PERIOD = 2500000L;
+
+    /**
+     * Three seconds of waving, with a gyroscope event between each pair of gravity events
+     */
+    private static byte[] syntheticTrace(boolean gyroscope) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SensorTrace.Writer writer = new SensorTrace.Writer(bytes);
+        float[] values = new float[3];
+        for (long time = 0; time < 3000000000L; time += GYRO_PERIOD) {
+            double seconds = time / 1e9;
+            double angle = 0.5 * Math.sin(2 * Math.PI * 1.5 * seconds);
+            if (time % GRAVITY_PERIOD == 0) {
+                values[0] = (float) (-GRAVITY * Math.sin(angle));
+                values[1] = (float) (GRAVITY * Math.cos(angle));
+                values[2] = 0;
+                writer.write(SensorTrace.GRAVITY, time, values, true);
+            } else if (gyroscope) {
+                values[0] = 0;
+                values[1] = 0;
+                values[2] = (float) (-0.5 * 2 * Math.PI * 1.5 * Math.cos(2 * Math.PI * 1.5 * seconds));
+                writer.write(SensorTrace.GYROSCOPE, time, values, true);
+            }
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static void assertInRange(TraceReplay.Result result, float textWidth, float boundsWidth) {
+        for (float offset : result.offsets) {
+            assertTrue("offset " + offset, offset >= -boundsWidth / 2 - 1);
+            assertTrue("offset " + offset, offset <= textWidth - boundsWidth / 2 + 1);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SensorTrace.Writer writer = new SensorTrace.Writer(bytes);
+        writer.write(SensorTrace.GYROSCOPE, 123456789L, new float[]{1, 2, 3}, false);
+        writer.close();
+        assertEquals(4 + 2 + SensorTrace.RECORD_SIZE, bytes.size());
+
+        SensorTrace.Reader reader = new SensorTrace.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        SensorTrace.Event event = new SensorTrace.Event();
+        assertTrue(reader.next(event));
+        assertEquals(SensorTrace.GYROSCOPE, event.sensor);
+        assertEquals(123456789L, event.timestamp);
+        assertArrayEquals(new float[]{1, 2, 3}, event.values, 0);
+        assertTrue(!event.portrait);
+        assertTrue(!reader.next(event));
+        reader.close();
+    }
+
+    @Test
+    public void replayIsDeterministic() throws IOException {
+        for (boolean gyroscope : new boolean[]{false, true}) {
+            byte[] trace = syntheticTrace(gyroscope);
+            TraceReplay first = new TraceReplay(new ByteArrayInputStream(trace));
+            TraceReplay second = new TraceReplay(new ByteArrayInputStream(trace));
+
+            for (String filter : new String[]{SensorFilters.EXPONENTIAL, SensorFilters.ONE_EURO, SensorFilters.KALMAN}) {
+                TraceReplay.Result a = first.replay(SensorFilters.create(filter));
+                TraceReplay.Result b = second.replay(SensorFilters.create(filter));
+                assertArrayEquals(a.timestamps, b.timestamps);
+                assertArrayEquals(a.offsets, b.offsets, 0);
+                assertInRange(a, 6000, 1080);
+            }
+        }
+    }
+
+    @Test
+    public void filtersLagTheRawMotion() throws IOException {
+        TraceReplay replay = new TraceReplay(new ByteArrayInputStream(syntheticTrace(false)));
+        TraceReplay.Result unfiltered = replay.replay(new SensorFilter() {
+            @Override
+            public void filter(float[] values, long timestamp) {
+            }
+
+            @Override
+            public void reset() {
+            }
+        });
+        assertEquals(0, unfiltered.lagBehind(unfiltered));
+        for (String filter : new String[]{SensorFilters.EXPONENTIAL, SensorFilters.ONE_EURO, SensorFilters.KALMAN}) {
+            long lag = replay.replay(SensorFilters.create(filter)).lagBehind(unfiltered);
+            assertTrue(filter + " lags by " + lag + "ns", lag >= 0 && lag < 50000000L);
+        }
+    }
+
+    @Test
+    public void recordedTrace() throws IOException {
+        String path = System.getProperty("textwave.trace");
+        if (path == null) {
+            return;
+        }
+        TraceReplay replay = new TraceReplay(new FileInputStream(path));
+        for (String filter : new String[]{SensorFilters.EXPONENTIAL, SensorFilters.ONE_EURO, SensorFilters.KALMAN}) {
+            TraceReplay.Result result = replay.replay(SensorFilters.create(filter));
+            assertEquals(replay.size(), result.offsets.length);
+            assertInRange(result, 6000, 1080);
+        }
+    }
+}